@@ -6,6 +6,9 @@ import java.util.stream.Collectors;
 
 public class JackAnalyzer {
 
+    // Name of this tool in StageMetrics
+    static final String TOOL = "jack-analyzer";
+
     private String filePath;
 
     public JackAnalyzer(String filePath) {
@@ -32,7 +35,9 @@ public class JackAnalyzer {
         try {
             JackTokenizer tokenizer = new JackTokenizer(filePath);
             CompilationEngine compilationEngine = new CompilationEngine(tokenizer);
+            StageMetrics.Timer timer = StageMetrics.start(TOOL, "compile", filePath);
             String analyzeOutput = compilationEngine.compileClass();
+            timer.stop(0, 0, 0);
 
             // extract file name
             String outputFileName = filePath.split("\\.")[0];
@@ -47,6 +52,7 @@ public class JackAnalyzer {
     }
 
     private void writeAnalyzerOutput(String outputFile, String analyzerXml) {
+        StageMetrics.Timer timer = StageMetrics.start(TOOL, "write", outputFile);
         try(FileWriter fw = new FileWriter(outputFile, true);
             BufferedWriter bw = new BufferedWriter(fw);
             PrintWriter out = new PrintWriter(bw))
@@ -55,11 +61,15 @@ public class JackAnalyzer {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        timer.stop(0, analyzerXml.length() + 1, 0);
     }
 
     public static void main(String[] args) throws Exception {
         JackAnalyzer analyzer = new JackAnalyzer(args[0]);
         analyzer.analyze();
+        if (args.length > 1 && args[1].equals("--metrics")) {
+            System.out.print(StageMetrics.report());
+        }
     }
 
 }
@@ -6,6 +6,9 @@ import java.util.stream.Collectors;
 
 public class JackCompiler {
 
+    // Name of this tool in StageMetrics
+    static final String TOOL = "jack-compiler";
+
     private String filePath;
 
     public JackCompiler(String filePath) {
@@ -32,7 +35,9 @@ public class JackCompiler {
         try {
             JackTokenizer tokenizer = new JackTokenizer(filePath);
             CompilationEngine compilationEngine = new CompilationEngine(tokenizer);
+            StageMetrics.Timer timer = StageMetrics.start(TOOL, "compile", filePath);
             String vmCode = compilationEngine.compileClass();
+            timer.stop(0, 0, vmCode.lines().filter(line -> !line.isBlank()).count());
 
             // extract file name
             String outputFileName = filePath.split("\\.")[0];
@@ -47,6 +52,7 @@ public class JackCompiler {
     }
 
     private void writeCompilerOutput(String outputFile, String compiledCode) {
+        StageMetrics.Timer timer = StageMetrics.start(TOOL, "write", outputFile);
         try(FileWriter fw = new FileWriter(outputFile, true);
             BufferedWriter bw = new BufferedWriter(fw);
             PrintWriter out = new PrintWriter(bw))
@@ -55,11 +61,15 @@ public class JackCompiler {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        timer.stop(0, compiledCode.length() + 1, 0);
     }
 
     public static void main(String[] args) throws Exception {
         JackCompiler compiler = new JackCompiler(args[0]);
         compiler.compile();
+        if (args.length > 1 && args[1].equals("--metrics")) {
+            System.out.print(StageMetrics.report());
+        }
     }
 
 }
@@ -29,12 +29,17 @@ public class JackTokenizer {
 
     private void tokenizeProgram(String fileName) {
         try {
+            StageMetrics.Timer timer = StageMetrics.start(JackCompiler.TOOL, "read", fileName);
             List<String> lines = Files.readAllLines(Path.of(fileName));
+            timer.stop(Files.size(Path.of(fileName)), 0, 0);
+
+            timer = StageMetrics.start(JackCompiler.TOOL, "parse", fileName);
             lines = removeCommentsAndEmptyLines(lines);
             lines = removeInlineComments(lines);
             for (String line: lines) {
                 tokenizeLine(line);
             }
+            timer.stop(0, 0, 0);
         } catch (Exception ex) {
             ex.printStackTrace();
         }
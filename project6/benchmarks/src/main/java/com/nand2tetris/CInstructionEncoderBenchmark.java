@@ -0,0 +1,114 @@
+package com.nand2tetris;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares CInstructionEncoder against the previous split/replace/HashMap encoding of C-instructions.
+ * Each operation encodes the C-instructions of the program, repeated scale times.
+ * It is in the assembler's package to build the previous encoding from the same lookup tables.
+ *
+ * Run with "java -jar target/benchmarks.jar CInstructionEncoderBenchmark".
+ * The .asm files are read from ../asm, or from the directory in the asm.dir system property.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CInstructionEncoderBenchmark {
+
+    @Param({"Pong.asm"})
+    public String program;
+
+    @Param({"100"})
+    public int scale;
+
+    private String[] cInstructions;
+    private CInstructionEncoder encoder;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Path path = Path.of(System.getProperty("asm.dir", "../asm"), program);
+        List<String> lines = new ArrayList<>();
+        for (String line : new Assembler().removeCommentsAndEmptyLines(Files.readAllLines(path), true)) {
+            if (!line.startsWith("@")) {
+                lines.add(line);
+            }
+        }
+        cInstructions = new String[lines.size() * scale];
+        for (int i = 0; i < cInstructions.length; i++) {
+            cInstructions[i] = lines.get(i % lines.size());
+        }
+        encoder = new CInstructionEncoder(Assembler.compLookup, Assembler.destLookup, Assembler.jmpLookup);
+        for (String cCommand : lines) {
+            if (encoder.encode(cCommand) != splitEncode(cCommand)) {
+                throw new IllegalStateException("Encoders disagree on " + cCommand);
+            }
+        }
+    }
+
+    @Benchmark
+    public long split() {
+        long checksum = 0;
+        for (String cCommand : cInstructions) {
+            checksum += splitEncode(cCommand);
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    public long encoder() {
+        long checksum = 0;
+        for (String cCommand : cInstructions) {
+            checksum += encoder.encode(cCommand);
+        }
+        return checksum;
+    }
+
+    /**
+     * The encoding used before CInstructionEncoder, kept here as the baseline
+     */
+    private static short splitEncode(String cCommand) {
+        String comp = null;
+        String jump = null;
+        String dest = null;
+        if (cCommand.contains("=")) {
+            String[] cInstParts = cCommand.split("=");
+            dest = cInstParts[0];
+            if (cInstParts[1].contains(";")) {
+                String[] compJumpParts = cInstParts[1].split(";");
+                comp = compJumpParts[0];
+                jump = compJumpParts[1];
+            } else {
+                comp = cInstParts[1];
+            }
+        } else {
+            String[] compJumpParts = cCommand.split(";");
+            comp = compJumpParts[0];
+            jump = compJumpParts[1];
+        }
+        String binary = String.format("111%s%s%s%s", comp.contains("M") ? "1" : "0",
+                Assembler.compLookup.get(comp.replace('M', 'A')),
+                Assembler.destLookup.get(dest == null || dest.strip().isEmpty() ? "null" : dest),
+                Assembler.jmpLookup.get(jump == null || jump.strip().isEmpty() ? "null" : jump));
+        return (short) Integer.parseInt(binary, 2);
+    }
+}
@@ -0,0 +1,136 @@
+package com.nand2tetris.benchmarks;
+
+import com.nand2tetris.Assembler;
+import com.nand2tetris.InstructionBuffer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Assembly throughput of the Hack assembler on the project 6 programs and on synthetic programs.
+ * The "instructions" counter is the throughput in instructions per second, "bytesPerInstruction" the
+ * allocation per assembled instruction on the benchmark thread (the parallel mode also allocates on the pool).
+ *
+ * Build with "mvn package" in this directory and run "java -jar target/benchmarks.jar".
+ * The .asm files are read from ../asm, or from the directory in the asm.dir system property.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AssemblerBenchmark {
+
+    private static final String SYNTHETIC = "synthetic:";
+
+    @Param({"Add.asm", "Max.asm", "Rect.asm", "Pong.asm", "synthetic:10000", "synthetic:100000", "synthetic:1000000"})
+    public String program;
+
+    private String fileName;
+    private Path syntheticFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if (program.startsWith(SYNTHETIC)) {
+            syntheticFile = Files.createTempFile("synthetic", ".asm");
+            SyntheticProgram.write(Integer.parseInt(program.substring(SYNTHETIC.length())), syntheticFile);
+            fileName = syntheticFile.toString();
+        } else {
+            fileName = Path.of(System.getProperty("asm.dir", "../asm"), program).toString();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (syntheticFile != null) {
+            Files.delete(syntheticFile);
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Instructions {
+        public long instructions;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            instructions = 0;
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Allocation {
+        private final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        private long instructions;
+        private long allocatedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            instructions = 0;
+            allocatedBytes = 0;
+        }
+
+        // Read in the benchmark method, a Level.Invocation setup would add its own overhead to every call
+        long start() {
+            return threads.getCurrentThreadAllocatedBytes();
+        }
+
+        void record(long start, InstructionBuffer output) {
+            allocatedBytes += threads.getCurrentThreadAllocatedBytes() - start;
+            instructions += output.size();
+        }
+
+        public double bytesPerInstruction() {
+            return instructions == 0 ? 0 : (double) allocatedBytes / instructions;
+        }
+    }
+
+    @Benchmark
+    public InstructionBuffer twoPass(Instructions counter, Allocation allocation) throws Exception {
+        long start = allocation.start();
+        InstructionBuffer output = new Assembler().assemble(fileName);
+        return count(start, output, counter, allocation);
+    }
+
+    @Benchmark
+    public InstructionBuffer mapped(Instructions counter, Allocation allocation) throws Exception {
+        long start = allocation.start();
+        InstructionBuffer output = new Assembler().assembleMapped(fileName);
+        return count(start, output, counter, allocation);
+    }
+
+    @Benchmark
+    public InstructionBuffer parallel(Instructions counter, Allocation allocation) throws Exception {
+        long start = allocation.start();
+        InstructionBuffer output = new Assembler().assembleParallel(fileName, ForkJoinPool.commonPool());
+        return count(start, output, counter, allocation);
+    }
+
+    private static InstructionBuffer count(long start, InstructionBuffer output, Instructions counter,
+                                           Allocation allocation) {
+        allocation.record(start, output);
+        counter.instructions += output.size();
+        return output;
+    }
+}
@@ -0,0 +1,69 @@
+package com.nand2tetris.benchmarks;
+
+import com.nand2tetris.Assembler;
+import com.nand2tetris.HackComputer;
+import com.nand2tetris.HackRecorder;
+import com.nand2tetris.InstructionBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording for rewind: the interpreter running a program on its own and through a HackRecorder.
+ * Each operation runs cycles instructions, the recording overhead is the ratio of the two scores.
+ *
+ * Run with "java -jar target/benchmarks.jar RecorderBenchmark".
+ * The .asm files are read from ../asm, or from the directory in the asm.dir system property.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecorderBenchmark {
+
+    @Param({"Pong.asm"})
+    public String program;
+
+    @Param({"10000000"})
+    public long cycles;
+
+    private InstructionBuffer instructions;
+    private HackComputer computer;
+    private HackRecorder recorder;
+
+    @Setup(Level.Trial)
+    public void assemble() throws Exception {
+        instructions = new Assembler().assembleMapped(Path.of(System.getProperty("asm.dir", "../asm"), program)
+                .toString());
+    }
+
+    @Setup(Level.Iteration)
+    public void load() {
+        computer = new HackComputer(instructions);
+        recorder = new HackRecorder(computer, 64);
+    }
+
+    @Benchmark
+    public long interpreter() {
+        return computer.run(cycles);
+    }
+
+    @Benchmark
+    public long recorder() {
+        return recorder.run(cycles);
+    }
+}
@@ -0,0 +1,40 @@
+package com.nand2tetris.benchmarks;
+
+import com.nand2tetris.HackComputer;
+import com.nand2tetris.SymbolTable;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Generates Hack assembly programs of a given size that are heavy on labels and variables,
+ * in the style of VM translator output: a label every 8 instructions, forward and backward jumps,
+ * and a pool of variables of one twentieth of the instruction count, capped so they all fit below the screen.
+ */
+public class SyntheticProgram {
+
+    private static final int INSTRUCTIONS_PER_BLOCK = 8;
+    // Variables are allocated from address 16 up, keep a margin below the screen memory map
+    private static final int MAX_VARIABLES = HackComputer.SCREEN - SymbolTable.FIRST_VARIABLE_ADDRESS - 1024;
+
+    public static void write(int instructions, Path path) throws IOException {
+        int blocks = Math.max(instructions / INSTRUCTIONS_PER_BLOCK, 1);
+        int variables = Math.min(Math.max(instructions / 20, 1), MAX_VARIABLES);
+        try (BufferedWriter out = Files.newBufferedWriter(path)) {
+            for (int block = 0; block < blocks; block++) {
+                int target = (int) ((block * 7919L + 13) % blocks);
+                out.write("(L" + block + ")\n");
+                out.write("@var" + (block % variables) + "\n");
+                out.write("D=M\n");
+                out.write("@L" + target + "\n");
+                out.write("D;JGT\n");
+                out.write("@var" + ((block * 31L + 7) % variables) + "\n");
+                out.write("M=D\n");
+                out.write("@SP\n");
+                out.write("AM=M-1\n");
+            }
+        }
+    }
+}
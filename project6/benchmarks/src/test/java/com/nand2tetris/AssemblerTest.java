@@ -0,0 +1,138 @@
+package com.nand2tetris;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AssemblerTest {
+
+    @TempDir
+    Path dir;
+
+    private String write(String... lines) throws Exception {
+        Path file = Files.createTempFile(dir, "program", ".asm");
+        Files.write(file, List.of(lines));
+        return file.toString();
+    }
+
+    private static List<String> binary(InstructionBuffer instructions) {
+        List<String> lines = new ArrayList<>();
+        for (short word : instructions.toArray()) {
+            lines.add(Integer.toBinaryString(word & 0xFFFF | 0x10000).substring(1));
+        }
+        return lines;
+    }
+
+    private static void assertModesAgree(String fileName) throws Exception {
+        List<String> twoPass = binary(new Assembler().assemble(fileName));
+        assertEquals(twoPass, binary(new Assembler().assembleMapped(fileName)));
+        assertEquals(twoPass, binary(new Assembler().assembleParallel(fileName, ForkJoinPool.commonPool())));
+        new Assembler().translateSinglePass(fileName);
+        assertEquals(twoPass, Files.readAllLines(Path.of(fileName + ".hack")));
+    }
+
+    @Test
+    void trailingCommentsAreStrippedInEveryMode() throws Exception {
+        String fileName = write("// Sets R0 to 1", "  @R0 // the result", "M=1 // one", "(END)// halt",
+                "@END", "0;JMP  // loop forever");
+        assertModesAgree(fileName);
+        assertEquals(List.of("0000000000000000", "1110111111001000", "0000000000000010", "1110101010000111"),
+                Files.readAllLines(Path.of(fileName + ".hack")));
+
+        Path fill = dir.resolve("Fill.asm");
+        Files.copy(Path.of("../../project4/Fill.asm"), fill, StandardCopyOption.REPLACE_EXISTING);
+        assertModesAgree(fill.toString());
+    }
+
+    @Test
+    void streamingModesRejectDeadCodeElimination() throws Exception {
+        String fileName = write("@0", "D=A", "(END)", "@END", "0;JMP");
+        Assembler assembler = new Assembler();
+        assembler.setDeadCodeEliminator(new DeadCodeEliminator());
+        assertThrows(IllegalStateException.class, () -> assembler.assembleMapped(fileName));
+        assertThrows(IllegalStateException.class, () -> assembler.translateSinglePass(fileName));
+    }
+
+    @Test
+    void mainRejectsDeadCodeEliminationWithListing() throws Exception {
+        String fileName = write("@0", "D=A", "(END)", "@END", "0;JMP");
+        assertThrows(IllegalArgumentException.class,
+                () -> Assembler.main(new String[] {"--listing", "--strip-unreachable", fileName}));
+        assertThrows(IllegalArgumentException.class,
+                () -> Assembler.main(new String[] {"--strip-unreachable", "--single-pass", fileName}));
+    }
+
+    @Test
+    void streamingModesRejectTheOptimizer() throws Exception {
+        String fileName = write("@0", "D=A", "(END)", "@END", "0;JMP");
+        Assembler assembler = new Assembler();
+        assembler.setOptimizer(new PeepholeOptimizer());
+        assertThrows(IllegalStateException.class, () -> assembler.assembleMapped(fileName));
+        assertThrows(IllegalStateException.class, () -> assembler.translateSinglePass(fileName));
+        assertThrows(IllegalArgumentException.class,
+                () -> Assembler.main(new String[] {"--optimize", "--listing", fileName}));
+    }
+
+    // Stores the address of RET (6) as data and returns to it through R13, RET is never referenced by label
+    private static final List<String> NUMERIC_RETURN_ADDRESS = List.of(
+            "@6", "D=A", "@R13", "M=D", "@FUNC", "0;JMP",
+            "(RET)", "(END)", "@END", "0;JMP",
+            "(FUNC)", "@R13", "@R13", "A=M", "0;JMP");
+
+    @Test
+    void numericLoadsUsedAsCodeAddressesAreDetected() {
+        assertTrue(Assembler.usesNumericCodeAddresses(NUMERIC_RETURN_ADDRESS));
+        assertTrue(Assembler.usesNumericCodeAddresses(List.of("@95", "0;JMP")));
+        assertTrue(Assembler.usesNumericCodeAddresses(List.of("@133", "D=A", "@95", "0;JMP")));
+        assertTrue(Assembler.usesNumericCodeAddresses(List.of(
+                "@133", "D=A", "@SP", "A=M", "M=D", "@SP", "M=M+1", "@LCL", "D=M")));
+        // Constants pushed or used as data
+        assertFalse(Assembler.usesNumericCodeAddresses(List.of(
+                "@7", "D=A", "@SP", "A=M", "M=D", "@SP", "M=M+1", "@8", "D=A")));
+        assertFalse(Assembler.usesNumericCodeAddresses(List.of("@0", "D=A", "(END)", "@END", "0;JMP")));
+        assertFalse(Assembler.usesNumericCodeAddresses(List.of("@5", "D=A", "@R13", "A=M-D", "D=M")));
+    }
+
+    // VM translator output: bootstrap, a call with a label as return address, and a function nothing calls
+    private static final List<String> CODE_WRITER_PROGRAM = List.of(
+            "@256", "D=A", "@SP", "M=D",
+            "@Main.main$ret.0", "D=A", "@SP", "A=M", "M=D", "@SP", "M=M+1",
+            "@Main.main", "0;JMP",
+            "(Main.main$ret.0)",
+            "(END)", "@END", "0;JMP",
+            "(Main.main)",
+            "@7", "D=A", "@SP", "A=M", "M=D", "@SP", "M=M+1",
+            "@Main.main$ret.0", "0;JMP",
+            "(Main.unused)",
+            "@5", "D=A", "@SP", "A=M", "M=D", "@SP", "M=M+1",
+            "@END", "0;JMP");
+
+    @Test
+    void deadCodeEliminationRemovesUncalledFunctionsOfVmOutput() {
+        DeadCodeEliminator deadCodeEliminator = new DeadCodeEliminator();
+        List<String> eliminated = deadCodeEliminator.eliminate(CODE_WRITER_PROGRAM);
+        assertEquals(9, deadCodeEliminator.getWordsRemoved());
+        assertEquals(CODE_WRITER_PROGRAM.subList(0, CODE_WRITER_PROGRAM.indexOf("(Main.unused)")), eliminated);
+    }
+
+    @Test
+    void passesLeaveNumericCodeAddressesUntouched() {
+        DeadCodeEliminator deadCodeEliminator = new DeadCodeEliminator();
+        assertEquals(NUMERIC_RETURN_ADDRESS, deadCodeEliminator.eliminate(NUMERIC_RETURN_ADDRESS));
+        assertTrue(deadCodeEliminator.report().contains("skipped"));
+
+        PeepholeOptimizer optimizer = new PeepholeOptimizer();
+        assertEquals(NUMERIC_RETURN_ADDRESS, optimizer.optimize(NUMERIC_RETURN_ADDRESS));
+        assertTrue(optimizer.report().contains("skipped"));
+    }
+}
@@ -0,0 +1,73 @@
+package com.nand2tetris;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class HackJitTest {
+
+    private static final CInstructionEncoder ENCODER = new CInstructionEncoder(Assembler.compLookup,
+            Assembler.destLookup, Assembler.jmpLookup);
+
+    // Budgets around MAX_BLOCK and below it, so runs end before, at and after the end of a block
+    private static final long[] BUDGETS = {1, 3, 100, HackJit.MAX_BLOCK - 1, HackJit.MAX_BLOCK,
+            HackJit.MAX_BLOCK + 1, 1000, 12_345};
+
+    private static String state(HackComputer computer) {
+        return computer.getA() + " " + computer.getD() + " " + computer.getPc() + " " + computer.getCycles() + " "
+                + computer.isHalted();
+    }
+
+    /**
+     * Runs the interpreter and the JIT side by side until total cycles, comparing the whole state after each run
+     */
+    private static HackJit runBoth(short[] rom, long total) {
+        HackComputer reference = new HackComputer(rom);
+        HackComputer computer = new HackComputer(rom);
+        HackJit jit = new HackJit(computer);
+        Random random = new Random(1);
+        while (reference.getCycles() < total) {
+            long budget = BUDGETS[random.nextInt(BUDGETS.length)];
+            reference.run(budget);
+            jit.run(budget);
+            assertEquals(state(reference), state(computer), "budget " + budget);
+            assertArrayEquals(reference.ram, computer.ram, "RAM after " + reference.getCycles());
+        }
+        return jit;
+    }
+
+    @Test
+    void compiledBlocksOfPongMatchTheInterpreter() throws Exception {
+        short[] rom = new Assembler().assembleMapped("../asm/Pong.asm").toArray();
+        HackJit jit = runBoth(rom, 3_000_000);
+        assertTrue(jit.getCompiledCount() > 0);
+    }
+
+    @Test
+    void blocksLongerThanMaxBlockMatchTheInterpreter() {
+        // Straight-line code over several MAX_BLOCK blocks, with a conditional jump back in the middle
+        List<String> cCommands = List.of("D=M", "M=D", "D=D+A", "M=M+1", "D=D-M", "M=D|M", "AM=M+1", "D=!D",
+                "MD=D+1", "A=D&M", "M=-1", "D=A-D");
+        Random random = new Random(2);
+        short[] rom = new short[HackComputer.ROM_SIZE];
+        int address = 0;
+        while (address < 3 * HackJit.MAX_BLOCK + 50) {
+            if (address == 2 * HackJit.MAX_BLOCK - 100) {
+                rom[address++] = 0;
+                rom[address++] = ENCODER.encode("D;JLT");
+            } else if (random.nextBoolean()) {
+                rom[address++] = (short) (16 + random.nextInt(200));
+            } else {
+                rom[address++] = ENCODER.encode(cCommands.get(random.nextInt(cCommands.size())));
+            }
+        }
+        rom[address++] = 0;
+        rom[address] = ENCODER.encode("0;JMP");
+        HackJit jit = runBoth(rom, (HackJit.COMPILE_THRESHOLD + 200) * (long) address);
+        assertTrue(jit.getCompiledCount() >= 3);
+    }
+}
@@ -0,0 +1,81 @@
+package com.nand2tetris;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class HackRecorderTest {
+
+    private static HackComputer pong() throws Exception {
+        return new HackComputer(new Assembler().assembleMapped("../asm/Pong.asm"));
+    }
+
+    private static String state(HackComputer computer) {
+        int ram = 0;
+        for (int address = 0; address <= HackComputer.KBD; address++) {
+            ram = ram * 31 + computer.peek(address);
+        }
+        return computer.getA() + " " + computer.getD() + " " + computer.getPc() + " " + computer.getCycles() + " "
+                + computer.isHalted() + " " + ram;
+    }
+
+    @Test
+    void rewindGivesTheStateAtEveryEarlierCycle() throws Exception {
+        HackComputer reference = pong();
+        HackComputer computer = new HackComputer(reference);
+        HackRecorder recorder = new HackRecorder(computer, 16, 4096);
+        Random random = new Random(1);
+        List<String> states = new ArrayList<>();
+        List<Long> cycles = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            long run = random.nextInt(5000);
+            reference.run(run);
+            recorder.run(run);
+            assertEquals(state(reference), state(computer));
+            states.add(state(computer));
+            cycles.add(computer.getCycles());
+        }
+        for (int i = states.size() - 1; i >= 0 && cycles.get(i) >= recorder.firstCycle(); i--) {
+            recorder.rewindTo(cycles.get(i));
+            assertEquals(states.get(i), state(computer));
+        }
+    }
+
+    @Test
+    void lastWriteFindsTheLatestWriteToTheAddress() throws Exception {
+        HackComputer reference = pong();
+        HackComputer computer = new HackComputer(reference);
+        HackRecorder recorder = new HackRecorder(computer, 64, 10_000);
+        recorder.run(200_000);
+        // Step the reference to find the writes to the stack pointer
+        long expected = -1;
+        while (reference.getCycles() < computer.getCycles()) {
+            int instruction = reference.rom[reference.getPc()];
+            if (instruction < 0 && (instruction & 0x08) != 0 && (reference.getA() & 0x7FFF) == 0) {
+                expected = reference.getCycles();
+            }
+            reference.step();
+        }
+        String end = state(computer);
+        assertEquals(expected, recorder.lastWrite(0));
+        assertEquals(end, state(computer));
+        recorder.rewindTo(expected);
+        assertEquals(expected, computer.getCycles());
+    }
+
+    @Test
+    void rewindPutsTheKeyboardBack() throws Exception {
+        HackComputer computer = pong();
+        HackRecorder recorder = new HackRecorder(computer, 16);
+        recorder.run(1000);
+        computer.setKeyboard(130);
+        recorder.run(1000);
+        assertEquals(130, computer.peek(HackComputer.KBD));
+        recorder.rewindTo(500);
+        assertEquals(0, computer.peek(HackComputer.KBD));
+        assertEquals(500, computer.getCycles());
+    }
+}
@@ -0,0 +1,84 @@
+package com.nand2tetris;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MacroTableTest {
+
+    private static final CInstructionEncoder ENCODER = new CInstructionEncoder(Assembler.compLookup,
+            Assembler.destLookup, Assembler.jmpLookup);
+
+    @TempDir
+    Path dir;
+
+    interface Mode {
+        short[] assemble(String fileName) throws Exception;
+    }
+
+    // Every way the assembler reads a source file
+    private static final List<Mode> MODES = List.of(
+            fileName -> new Assembler().assemble(fileName).toArray(),
+            fileName -> new Assembler().assembleMapped(fileName).toArray(),
+            fileName -> new Assembler().assembleParallel(fileName, ForkJoinPool.commonPool()).toArray(),
+            fileName -> {
+                new Assembler().translateSinglePass(fileName);
+                return HackComputer.load(Path.of(fileName + ".hack")).rom;
+            });
+
+    private String write(String... lines) throws Exception {
+        Path file = Files.createTempFile(dir, "macro", ".asm");
+        Files.write(file, List.of(lines));
+        return file.toString();
+    }
+
+    @Test
+    void invocationAfterDefinitionIsExpanded() throws Exception {
+        String fileName = write(".macro ZERO", "D=0", ".endm", "ZERO", "(END)", "@END", "0;JMP");
+        for (Mode mode : MODES) {
+            short[] words = mode.assemble(fileName);
+            assertArrayEquals(new short[] {(short) 0xEA90, 1, (short) 0xEA87}, Arrays.copyOf(words, 3));
+        }
+    }
+
+    @Test
+    void invocationBeforeDefinitionIsRejected() throws Exception {
+        String fileName = write("ZERO", "(END)", "@END", "0;JMP", ".macro ZERO", "D=0", "D=D", ".endm");
+        for (Mode mode : MODES) {
+            assertThrows(IllegalArgumentException.class, () -> mode.assemble(fileName));
+        }
+    }
+
+    @Test
+    void redefinitionIsRejected() throws Exception {
+        String fileName = write(".macro ZERO", "D=0", ".endm", "ZERO",
+                ".macro ZERO", "D=0", "D=D", ".endm", "ZERO");
+        for (Mode mode : MODES) {
+            assertThrows(IllegalArgumentException.class, () -> mode.assemble(fileName));
+        }
+    }
+
+    @Test
+    void builtInMacrosCanNotBeRedefined() {
+        MacroTable macros = new MacroTable(ENCODER);
+        assertThrows(IllegalArgumentException.class, () -> macros.define("PUSHD", List.of("D=0")));
+    }
+
+    @Test
+    void resetForgetsSourceMacrosOnly() {
+        MacroTable macros = new MacroTable(ENCODER);
+        macros.define("ZERO", List.of("D=0"));
+        macros.reset();
+        macros.define("ZERO", List.of("D=0", "D=D"));
+        assertArrayEquals(new short[] {(short) 0xEA90, (short) 0xE310},
+                new short[] {macros.get("ZERO").word(0), macros.get("ZERO").word(1)});
+        assertArrayEquals(new short[] {(short) 0xFC20}, new short[] {macros.get("POPA").word(2)});
+    }
+}
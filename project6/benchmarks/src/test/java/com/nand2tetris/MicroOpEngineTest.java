@@ -0,0 +1,38 @@
+package com.nand2tetris;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class MicroOpEngineTest {
+
+    private static final CInstructionEncoder ENCODER = new CInstructionEncoder(Assembler.compLookup,
+            Assembler.destLookup, Assembler.jmpLookup);
+
+    private static String state(HackComputer computer) {
+        return computer.getA() + " " + computer.getD() + " " + computer.getPc() + " " + computer.getCycles() + " "
+                + computer.peek(100);
+    }
+
+    @Test
+    void fusedPairAtTheEndOfTheRomWrapsToAddressZero() {
+        // One superinstruction of each kind, and a generic fused pair, as the last two words of the ROM
+        for (String cCommand : List.of("D=M", "M=D", "AM=M-1", "M=M+1", "D=A", "0;JMP", "D=D+A")) {
+            short[] rom = new short[HackComputer.ROM_SIZE];
+            rom[0] = 0x7FFE;
+            rom[1] = ENCODER.encode("D=D+1");
+            rom[2] = ENCODER.encode("0;JMP");
+            rom[0x7FFE] = 100;
+            rom[0x7FFF] = ENCODER.encode(cCommand);
+            HackComputer reference = new HackComputer(rom);
+            HackComputer computer = new HackComputer(rom);
+            MicroOpEngine engine = new MicroOpEngine(computer);
+            for (int i = 0; i < 20; i++) {
+                reference.run(3);
+                engine.run(3);
+                assertEquals(state(reference), state(computer), cCommand + " after " + reference.getCycles());
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.nand2tetris;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class PeepholeOptimizerTest {
+
+    private static List<String> optimize(PeepholeOptimizer.Rule rule, String... lines) {
+        return new PeepholeOptimizer(EnumSet.of(rule)).optimize(List.of(lines));
+    }
+
+    @Test
+    void redundantALoadIsRemoved() {
+        assertEquals(List.of("@SP", "M=M+1", "A=M"),
+                optimize(PeepholeOptimizer.Rule.REDUNDANT_A_LOAD, "@SP", "M=M+1", "@SP", "A=M"));
+        // A label can be jumped to with any A, and a C-instruction may write A
+        assertEquals(List.of("@SP", "M=M+1", "(L)", "@SP", "A=M"),
+                optimize(PeepholeOptimizer.Rule.REDUNDANT_A_LOAD, "@SP", "M=M+1", "(L)", "@SP", "A=M"));
+        assertEquals(List.of("@SP", "AM=M-1", "@SP", "D=M"),
+                optimize(PeepholeOptimizer.Rule.REDUNDANT_A_LOAD, "@SP", "AM=M-1", "@SP", "D=M"));
+    }
+
+    @Test
+    void cancellingIncDecIsRemoved() {
+        assertEquals(List.of("@SP", "D=M"),
+                optimize(PeepholeOptimizer.Rule.CANCELLING_INC_DEC, "@SP", "M=M+1", "M=M-1", "D=M"));
+        assertEquals(List.of("@SP", "M=M+1", "@R13", "M=M-1"),
+                optimize(PeepholeOptimizer.Rule.CANCELLING_INC_DEC, "@SP", "M=M+1", "@R13", "M=M-1"));
+    }
+
+    @Test
+    void deadDStoreIsRemoved() {
+        assertEquals(List.of("@x", "@y", "D=M", "@z", "M=D"),
+                optimize(PeepholeOptimizer.Rule.DEAD_D_STORE, "@x", "D=M", "@y", "D=M", "@z", "M=D"));
+        // D is read before it is written again
+        assertEquals(List.of("@x", "D=M", "@y", "D=D+M"),
+                optimize(PeepholeOptimizer.Rule.DEAD_D_STORE, "@x", "D=M", "@y", "D=D+M"));
+    }
+
+    @Test
+    void unreachableCodeAfterJumpIsRemoved() {
+        assertEquals(List.of("@L", "0;JMP", "(L)", "D=0"),
+                optimize(PeepholeOptimizer.Rule.UNREACHABLE_AFTER_JUMP, "@L", "0;JMP", "D=M", "M=D", "(L)", "D=0"));
+        // A conditional jump falls through
+        assertEquals(List.of("@L", "D;JGT", "D=M", "(L)"),
+                optimize(PeepholeOptimizer.Rule.UNREACHABLE_AFTER_JUMP, "@L", "D;JGT", "D=M", "(L)"));
+    }
+
+    @Test
+    void pushThenPopOfVmOutputCancels() {
+        // "push constant 7" directly followed by a pop leaves the stack pointer as it was
+        PeepholeOptimizer optimizer = new PeepholeOptimizer();
+        List<String> optimized = optimizer.optimize(List.of(
+                "@7", "D=A", "@SP", "A=M", "M=D", "@SP", "M=M+1", "@SP", "M=M-1", "@R13", "M=D"));
+        assertEquals(List.of("@7", "D=A", "@SP", "A=M", "M=D", "@SP", "@R13", "M=D"), optimized);
+        assertEquals(Map.of(PeepholeOptimizer.Rule.REDUNDANT_A_LOAD, 1, PeepholeOptimizer.Rule.CANCELLING_INC_DEC, 2),
+                optimizer.getWordsSavedByRule());
+    }
+}
@@ -0,0 +1,156 @@
+package com.nand2tetris;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Lexer over the raw ASCII bytes of a Hack assembly file.
+ * Skips blank lines, comment lines and trailing comments and reports each label, A-instruction and
+ * C-instruction (or directive) as a span [tokenStart, tokenEnd) of the source buffer. For A-instructions the span is the
+ * value after '@', for labels the name between the parentheses. No String is created while scanning.
+ */
+public class AsmLexer {
+
+    public enum TokenType {
+        A_INSTRUCTION,
+        C_INSTRUCTION,
+        LABEL,
+        // Assembler directive such as ".macro NAME", the span is the whole line
+        DIRECTIVE
+    }
+
+    private final ByteBuffer source;
+    private final int limit;
+    private int position;
+    private int lineNumber;
+
+    private TokenType tokenType;
+    private int tokenStart;
+    private int tokenEnd;
+
+    public AsmLexer(ByteBuffer source) {
+        this.source = source;
+        this.limit = source.limit();
+    }
+
+    /**
+     * Memory map the file, the mapping stays valid after the channel is closed
+     */
+    public static AsmLexer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new AsmLexer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Advance to the next token
+     * @return false at the end of the source
+     */
+    public boolean next() {
+        while (position < limit) {
+            lineNumber++;
+            int lineEnd = position;
+            while (lineEnd < limit && source.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int start = skipBlanks(position, lineEnd);
+            int end = codeEnd(start, lineEnd);
+            position = lineEnd + 1;
+            if (start == end) {
+                continue;
+            }
+            byte first = source.get(start);
+            if (first == '@') {
+                tokenType = TokenType.A_INSTRUCTION;
+                tokenStart = start + 1;
+                tokenEnd = end;
+            } else if (first == '.') {
+                tokenType = TokenType.DIRECTIVE;
+                tokenStart = start;
+                tokenEnd = end;
+            } else if (first == '(') {
+                if (source.get(end - 1) != ')') {
+                    throw new IllegalArgumentException("Unterminated label at line " + lineNumber);
+                }
+                tokenType = TokenType.LABEL;
+                tokenStart = start + 1;
+                tokenEnd = end - 1;
+            } else {
+                tokenType = TokenType.C_INSTRUCTION;
+                tokenStart = start;
+                tokenEnd = end;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Start scanning again from the beginning of the source
+     */
+    public void rewind() {
+        position = 0;
+        lineNumber = 0;
+    }
+
+    private int skipBlanks(int from, int to) {
+        while (from < to && isBlank(source.get(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * End of the code on the line, before any comment and trailing blanks
+     */
+    private int codeEnd(int from, int to) {
+        int end = from;
+        while (end < to && !(source.get(end) == '/' && end + 1 < to && source.get(end + 1) == '/')) {
+            end++;
+        }
+        while (end > from && isBlank(source.get(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    public ByteBuffer source() {
+        return source;
+    }
+
+    public TokenType tokenType() {
+        return tokenType;
+    }
+
+    public int tokenStart() {
+        return tokenStart;
+    }
+
+    public int tokenEnd() {
+        return tokenEnd;
+    }
+
+    /**
+     * Line of the current token, starting at 1
+     */
+    public int lineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Text of the current token, only needed for new symbol names
+     */
+    public String tokenText() {
+        byte[] bytes = new byte[tokenEnd - tokenStart];
+        source.get(tokenStart, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
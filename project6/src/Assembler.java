@@ -1,28 +1,54 @@
 package com.nand2tetris;
 
 
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class Assembler {
 
-    Map<String, String> compLookup = new HashMap<>();
-    Map<String, String> destLookup = new HashMap<>();
-    Map<String, String> jmpLookup = new HashMap<>();
-    Map<String, String> symbolsLookup = new HashMap<>();
+    // Lookup tables are built once and shared by all Assembler instances, they are only read after class initialization
+    static final Map<String, String> compLookup = new HashMap<>();
+    static final Map<String, String> destLookup = new HashMap<>();
+    static final Map<String, String> jmpLookup = new HashMap<>();
 
-    // Initial value for assigning variables
-    private int variableReferenceCounter = 16;
+    private static final CInstructionEncoder C_INSTRUCTION_ENCODER;
+    // "push D" as the VM translator writes it
+    private static final List<String> PUSH_D = List.of("@SP", "A=M", "M=D", "@SP", "M=M+1");
 
-    public Assembler() {
+    // Symbols are per instance, an Assembler assembles one program
+    SymbolTable symbols = new SymbolTable();
+
+    private DeadCodeEliminator deadCodeEliminator;
+    private PeepholeOptimizer optimizer;
+    private SourceMap.Builder sourceMap;
+
+    // Macros are defined per program, on top of the built in pseudo-instructions
+    private final MacroTable macros = new MacroTable(C_INSTRUCTION_ENCODER);
+
+    // Instructions encoded by one task in parallel mode
+    private static final int PARALLEL_CHUNK_SIZE = 8192;
+
+    // Name of this tool in StageMetrics
+    private static final String TOOL = "assembler";
+
+    static {
         compLookup.put("0", "101010");
         compLookup.put("1", "111111");
         compLookup.put("-1", "111010");
@@ -60,125 +86,128 @@ public class Assembler {
         jmpLookup.put("JLE", "110");
         jmpLookup.put("JMP", "111");
 
-        symbolsLookup.put("R0", "0");
-        symbolsLookup.put("R1", "1");
-        symbolsLookup.put("R2", "2");
-        symbolsLookup.put("R3", "3");
-        symbolsLookup.put("R4", "4");
-        symbolsLookup.put("R5", "5");
-        symbolsLookup.put("R6", "6");
-        symbolsLookup.put("R7", "7");
-        symbolsLookup.put("R8", "8");
-        symbolsLookup.put("R9", "9");
-        symbolsLookup.put("R10", "10");
-        symbolsLookup.put("R11", "11");
-        symbolsLookup.put("R12", "12");
-        symbolsLookup.put("R13", "13");
-        symbolsLookup.put("R14", "14");
-        symbolsLookup.put("R15", "15");
-        symbolsLookup.put("KBD", "24576");
-        symbolsLookup.put("SCREEN", "16384");
-        symbolsLookup.put("SP", "0");
-        symbolsLookup.put("LCL", "1");
-        symbolsLookup.put("ARG", "2");
-        symbolsLookup.put("THIS", "3");
-        symbolsLookup.put("THAT", "4");
+        C_INSTRUCTION_ENCODER = new CInstructionEncoder(compLookup, destLookup, jmpLookup);
+    }
 
+    public short encodeAInstruction(String aCommand) {
+        return encodeAValue(aCommand.substring(1));
     }
 
-    public String translateCompBits(String compAsm) {
-        if (compAsm.contains("M")) {
-            String convertedComp = compAsm.replace('M', 'A');
-            return compLookup.get(convertedComp);
+    private short encodeAValue(String aVal) {
+        if (isNumber(aVal)) {
+            return (short) Integer.parseInt(aVal);
         }
-        return compLookup.get(compAsm);
+        // Check if @symbol is found in symbols (OR) Check if @symbol is a label reference
+        // Both are handled by looking up symbol map
+        // Else @symbol is a variable. If first encounter, assign variable counter starting from 16, else get from map
+        int address = symbols.get(aVal);
+        if (address == SymbolTable.NOT_FOUND) {
+            address = symbols.allocateVariable(aVal);
+            if (sourceMap != null) {
+                sourceMap.addVariable(aVal, address);
+            }
+        }
+        return (short) address;
     }
 
-    public String translateJumpBits(String jumpAsm) {
-        if (jumpAsm == null || jumpAsm.strip().isEmpty()) {
-            return jmpLookup.get("null");
+    /**
+     * Encode the A-instruction whose value is the ASCII bytes source[start, end).
+     * Only a symbol seen for the first time is turned into a String.
+     */
+    public short encodeAInstruction(ByteBuffer source, int start, int end) {
+        if (start == end) {
+            throw new IllegalArgumentException("Missing value in A-instruction");
+        }
+        int value = 0;
+        boolean number = true;
+        for (int i = start; i < end && number; i++) {
+            int c = source.get(i) - '0';
+            number = c >= 0 && c <= 9;
+            value = value * 10 + c;
         }
-        return jmpLookup.get(jumpAsm);
+        if (number) {
+            return (short) value;
+        }
+        int address = symbols.get(source, start, end);
+        if (address == SymbolTable.NOT_FOUND) {
+            byte[] name = new byte[end - start];
+            source.get(start, name);
+            String variable = new String(name, StandardCharsets.US_ASCII);
+            address = symbols.allocateVariable(variable);
+            if (sourceMap != null) {
+                sourceMap.addVariable(variable, address);
+            }
+        }
+        return (short) address;
     }
 
-    public String translateDestBits(String destAsm) {
-        if (destAsm == null || destAsm.strip().isEmpty()) {
-            return destLookup.get("null");
+    private static boolean isNumber(String symbol) {
+        // Symbols cannot begin with a digit, so checking the characters avoids parsing every symbol
+        if (symbol.isEmpty()) {
+            return false;
         }
-        return destLookup.get(destAsm);
+        for (int i = 0; i < symbol.length(); i++) {
+            char c = symbol.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
     }
 
-    public String getABit(String computation) {
-        if (computation.contains("M")) {
-            return "1";
-        } else {
-            return "0";
+    /**
+     * Whether the cleaned lines use a number as the ROM address of code, so that passes moving code must leave
+     * them untouched. A numeric load counts as a code address when it is
+     * - directly followed by a jump ("@133" then "0;JMP"),
+     * - or loaded into D ("@133" then "D=A") that is then pushed as the return address of a call frame (the push is
+     *   followed by "@LCL"), stored into R13 to R15, or carried into a jump ("@f" then "0;JMP").
+     * Other numbers, such as the constants of "push constant 7", are data.
+     */
+    public static boolean usesNumericCodeAddresses(List<String> cleanedLines) {
+        for (int i = 0; i < cleanedLines.size(); i++) {
+            String line = cleanedLines.get(i);
+            if (!line.startsWith("@") || !isNumber(line.substring(1))) {
+                continue;
+            }
+            if (isJump(lineAt(cleanedLines, i + 1))) {
+                return true;
+            }
+            if (lineAt(cleanedLines, i + 1).equals("D=A") && storesReturnAddress(cleanedLines, i + 2)) {
+                return true;
+            }
         }
+        return false;
     }
 
-    public String translateAInstruction(String aCommand) {
-        String aVal = aCommand.substring(1);
-        if (isNumber(aVal)) {
-            return convertIntegerTo16BitBinary(aVal);
+    /**
+     * Whether the D value at index from is used as a return address
+     */
+    private static boolean storesReturnAddress(List<String> lines, int from) {
+        String line = lineAt(lines, from);
+        if (line.equals("@R13") || line.equals("@R14") || line.equals("@R15")) {
+            return lineAt(lines, from + 1).equals("M=D");
         }
-        // Check if @symbol is found in symbols (OR) Check if @symbol is a label reference
-        // Both are handled by looking up symbol map
-        if (symbolsLookup.containsKey(aVal)) {
-            String replacement = symbolsLookup.get(aVal);
-            return convertIntegerTo16BitBinary(replacement);
-        } else {
-            // Else @symbol is a variable. If first encounter, assign variable counter starting from 16, else get from map
-            symbolsLookup.put(aVal, String.valueOf(variableReferenceCounter));
-            variableReferenceCounter++;
-            String replacement = symbolsLookup.get(aVal);
-            return convertIntegerTo16BitBinary(replacement);
+        if (line.startsWith("@") && isJump(lineAt(lines, from + 1))) {
+            return true;
+        }
+        for (int i = 0; i < PUSH_D.size(); i++) {
+            if (!lineAt(lines, from + i).equals(PUSH_D.get(i))) {
+                return false;
+            }
         }
+        return lineAt(lines, from + PUSH_D.size()).equals("@LCL");
     }
 
-    private String convertIntegerTo16BitBinary(String aVal) {
-        String binVal = Integer.toBinaryString(Integer.valueOf(aVal));
-        int zeroPadding = 16 - binVal.length();
-        String format = "%0" + zeroPadding + "d";
-        String zeros = String.format(format, 0);
-        return zeros + binVal;
+    private static boolean isJump(String line) {
+        return !line.startsWith("@") && !line.startsWith("(") && line.contains(";");
     }
 
-    private boolean isNumber(String symbol) {
-        try {
-            Integer.parseInt(symbol);
-            return true;
-        } catch (NumberFormatException e) {
-            return false;
-        }
+    private static String lineAt(List<String> lines, int index) {
+        return index < lines.size() ? lines.get(index) : "";
     }
-    public String translateCInstruction(String cCommand) {
-        String comp = null;
-        String jump = null;
-        String dest = null;
-        if (cCommand.contains("=")) {
-            String[] cInstParts = cCommand.split("=");
-            dest = cInstParts[0];
-            if (cInstParts[1].contains(";")) {
-                String[] compJumpParts = cInstParts[1].split(";");
-                comp = compJumpParts[0];
-                jump = compJumpParts[1];
-            } else {
-                comp = cInstParts[1];
-            }
-        } else {
-            if (cCommand.contains(";")) {
-                String[] compJumpParts = cCommand.split(";");
-                comp = compJumpParts[0];
-                jump = compJumpParts[1];
-            }
-        }
 
-        String aBit = getABit(comp);
-        String compBits = translateCompBits(comp);
-        String destBits = translateDestBits(dest);
-        String jumpBits = translateJumpBits(jump);
-        String translatedInst = String.format("111%s%s%s%s", aBit, compBits, destBits, jumpBits);
-        return translatedInst;
+    public short encodeCInstruction(String cCommand) {
+        return C_INSTRUCTION_ENCODER.encode(cCommand);
     }
 
     /**
@@ -188,54 +217,74 @@ public class Assembler {
      * @throws Exception
      */
     public void translateFirstPass(String fileName) throws Exception {
+        resolveLabels(readCleanedLines(fileName));
+    }
+
+    /**
+     * Source lines without comments and empty lines, labels included, with macros expanded,
+     * run through dead code elimination and the optimizer if they are set
+     */
+    private List<String> readCleanedLines(String fileName) throws IOException {
+        StageMetrics.Timer timer = StageMetrics.start(TOOL, "read", fileName);
         List<String> lines = Files.readAllLines(Path.of(fileName));
-        List<String> cleanedLines  = removeCommentsAndEmptyLines(lines, false);
-        List<Statement> statements = getStatements(cleanedLines);
-        for (int i=0; i<statements.size(); i++) {
-            Statement statement = statements.get(i);
-            if (isLabel(statement.line)) {
-                String label = extractLabel(cleanedLines.get(i));
-                Statement nextStatement = statements.get(i+1);
-                // Sometimes, two labels can be one after the other
-                if (nextStatement.lineNumber > 0) {
-                    symbolsLookup.put(label, String.valueOf(nextStatement.lineNumber));
-                } else {
-                    Statement secondStatement = statements.get(i+2);
-                    if (secondStatement.lineNumber > 0) {
-                        symbolsLookup.put(label, String.valueOf(secondStatement.lineNumber));
-                    } else {
-                        Statement thirdStatement = statements.get(i+3);
-                        if (thirdStatement.lineNumber > 0) {
-                            symbolsLookup.put(label, String.valueOf(thirdStatement.lineNumber));
-                        } else {
-                            Statement fourthStatement = statements.get(i+4);
-                            symbolsLookup.put(label, String.valueOf(fourthStatement.lineNumber));
-                            if (fourthStatement.lineNumber == 0) {
-                                System.out.println("Fourth statement is also a label");
-                            }
-                        }
-                    }
+        timer.stop(Files.size(Path.of(fileName)), 0, 0);
 
-                }
+        timer = StageMetrics.start(TOOL, "parse", fileName);
+        macros.reset();
+        List<String> cleanedLines = macros.expand(removeCommentsAndEmptyLines(lines, false));
+        timer.stop(0, 0, 0);
+
+        if (deadCodeEliminator != null || optimizer != null) {
+            timer = StageMetrics.start(TOOL, "optimize", fileName);
+            if (deadCodeEliminator != null) {
+                cleanedLines = deadCodeEliminator.eliminate(cleanedLines);
+            }
+            if (optimizer != null) {
+                cleanedLines = optimizer.optimize(cleanedLines);
             }
+            timer.stop(0, 0, 0);
         }
+        return cleanedLines;
+    }
+
+    /**
+     * Reachability pass run over the source before labels are resolved, null to disable.
+     * Only the modes that read the source into lines run it, assembleMapped and translateSinglePass reject it.
+     */
+    public void setDeadCodeEliminator(DeadCodeEliminator deadCodeEliminator) {
+        this.deadCodeEliminator = deadCodeEliminator;
     }
 
-    private List<Statement> getStatements(List<String> lines) {
-        List<Statement> statements = new ArrayList<>();
-        int codeLineNumber = 0;
-        for(int i=0; i<lines.size(); i++) {
-            String codeLine = lines.get(i);
-            Statement codeStatement = null;
-            boolean isLabel = isLabel(codeLine);
-            if (isLabel) {
-                codeStatement = new Statement(0, codeLine);
+    /**
+     * Builder collecting the listing and symbols while assembling with assembleMapped, null to disable
+     */
+    public void setSourceMap(SourceMap.Builder sourceMap) {
+        this.sourceMap = sourceMap;
+    }
+
+    /**
+     * Optimizer run over the source before labels are resolved, null to disable.
+     * Only the modes that read the source into lines run it, assembleMapped and translateSinglePass reject it.
+     */
+    public void setOptimizer(PeepholeOptimizer optimizer) {
+        this.optimizer = optimizer;
+    }
+
+    /**
+     * Assign addresses to all labels of the cleaned source lines in one linear scan.
+     * A label is bound to the ROM address of the next real instruction, which is the running
+     * instruction count, so any number of consecutive labels get the same address.
+     * @param cleanedLines
+     */
+    public void resolveLabels(List<String> cleanedLines) {
+        int romAddress = 0;
+        for (String line : cleanedLines) {
+            if (isLabel(line)) {
+                symbols.put(extractLabel(line), romAddress);
             } else {
-                codeStatement = new Statement(codeLineNumber++, codeLine);
+                romAddress++;
             }
-            statements.add(codeStatement);
         }
-        return statements;
     }
 
     public boolean isLabel(String line) {
@@ -252,8 +301,8 @@ public class Assembler {
     public List<String> removeCommentsAndEmptyLines(List<String> lines, boolean ignoreLabel) {
         List<String> cleanedLines = new ArrayList<>();
         for(String line: lines) {
-            line = line.strip();
-            if (line.startsWith("//") || line.isEmpty()) {
+            line = cleanLine(line);
+            if (line == null) {
                 continue;
             }
             if (ignoreLabel && isLabel(line)) {
@@ -263,8 +312,24 @@ public class Assembler {
         }
         return cleanedLines;
     }
+
+    /**
+     * Strip a raw source line and any trailing comment, returns null for comments and empty lines
+     */
+    public String cleanLine(String line) {
+        int comment = line.indexOf("//");
+        if (comment >= 0) {
+            line = line.substring(0, comment);
+        }
+        line = line.strip();
+        if (line.isEmpty()) {
+            return null;
+        }
+        return line;
+    }
     public void writeOutput(List<String> outputLines, String fileName) {
-        try(FileWriter fw = new FileWriter(fileName+".hack", true);
+        StageMetrics.Timer timer = StageMetrics.start(TOOL, "write", fileName);
+        try(FileWriter fw = new FileWriter(fileName+".hack");
             BufferedWriter bw = new BufferedWriter(fw);
             PrintWriter out = new PrintWriter(bw))
         {
@@ -274,60 +339,489 @@ public class Assembler {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        timer.stop(0, (long) outputLines.size() * HackWriter.LINE_LENGTH, 0);
+    }
+
+    /**
+     * Write the encoded words as .hack text, replacing any previous output
+     */
+    public void writeOutput(InstructionBuffer instructions, String fileName) {
+        StageMetrics.Timer timer = StageMetrics.start(TOOL, "write", fileName);
+        try {
+            HackWriter.write(instructions, Path.of(fileName + ".hack"));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        timer.stop(0, (long) instructions.size() * HackWriter.LINE_LENGTH, 0);
+    }
+
+    /**
+     * Write the encoded instructions by rendering them straight into a memory mapped output file
+     */
+    public void writeOutputMapped(InstructionBuffer instructions, String fileName) {
+        StageMetrics.Timer timer = StageMetrics.start(TOOL, "write", fileName);
+        try {
+            HackWriter.writeMapped(instructions, Path.of(fileName + ".hack"));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        timer.stop(0, (long) instructions.size() * HackWriter.LINE_LENGTH, 0);
     }
 
     public void translateFinalPass(String fileName) throws Exception {
-        List<String> lines = Files.readAllLines(Path.of(fileName));
-        List<String> cleanedLines  = removeCommentsAndEmptyLines(lines, true);
-        List<String> output = new ArrayList<>();
-        for (String line:cleanedLines) {
+        writeOutput(encodeFinalPass(fileName), fileName);
+    }
+
+    /**
+     * Encode all instructions to binary words, labels must already be resolved by translateFirstPass
+     * @param fileName
+     * @return encoded instructions
+     * @throws Exception
+     */
+    public InstructionBuffer encodeFinalPass(String fileName) throws Exception {
+        List<String> instructions = new ArrayList<>();
+        for (String line : readCleanedLines(fileName)) {
+            if (!isLabel(line)) {
+                instructions.add(line);
+            }
+        }
+        StageMetrics.Timer timer = StageMetrics.start(TOOL, "translate", fileName);
+        InstructionBuffer output = encode(instructions);
+        timer.stop(0, 0, output.size());
+        return output;
+    }
+
+    /**
+     * Encode instructions (without labels) in order, allocating variables as they are encountered
+     */
+    public InstructionBuffer encode(List<String> instructions) {
+        InstructionBuffer output = new InstructionBuffer(instructions.size());
+        for (String line:instructions) {
             if (line.startsWith("@")) {
-                output.add(translateAInstruction(line));
+                output.add(encodeAInstruction(line));
             } else {
-                output.add(translateCInstruction(line));
+                output.add(encodeCInstruction(line));
             }
         }
-        writeOutput(output, fileName);
+        return output;
     }
 
-    class Statement {
-        int lineNumber;
-        String line;
+    /**
+     * Assemble the file, encoding chunks of instructions in parallel on the given pool.
+     * Labels are resolved first and the symbol table is then only read by the chunk tasks. A-instructions
+     * on unknown symbols (variables) are left to a serial step after all chunks complete, which allocates
+     * them in order of first reference, so the output is identical to translateFinalPass.
+     * @param fileName
+     * @param pool
+     * @return encoded instructions
+     * @throws Exception
+     */
+    public InstructionBuffer assembleParallel(String fileName, ForkJoinPool pool) throws Exception {
+        List<String> cleanedLines = readCleanedLines(fileName);
+        resolveLabels(cleanedLines);
+        List<String> instructions = new ArrayList<>(cleanedLines.size());
+        for (String line : cleanedLines) {
+            if (!isLabel(line)) {
+                instructions.add(line);
+            }
+        }
 
-        public Statement(int lineNumber, String line) {
-            this.lineNumber = lineNumber;
-            this.line = line;
+        StageMetrics.Timer timer = StageMetrics.start(TOOL, "translate", fileName);
+        short[] words = new short[instructions.size()];
+        int[] variableReferences = pool.invoke(new EncodeChunkTask(instructions, words, 0, words.length));
+        for (int address : variableReferences) {
+            words[address] = (short) symbols.resolve(instructions.get(address).substring(1));
         }
+        timer.stop(0, 0, words.length);
+        return new InstructionBuffer(words, words.length);
+    }
 
-        public int getLineNumber() {
-            return lineNumber;
+    /**
+     * Encodes instructions[from, to) into words against the frozen symbol table.
+     * Returns the addresses of A-instructions on symbols not in the table, in order.
+     */
+    class EncodeChunkTask extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> instructions;
+        private final short[] words;
+        private final int from;
+        private final int to;
+
+        EncodeChunkTask(List<String> instructions, short[] words, int from, int to) {
+            this.instructions = instructions;
+            this.words = words;
+            this.from = from;
+            this.to = to;
         }
 
-        public void setLineNumber(int lineNumber) {
-            this.lineNumber = lineNumber;
+        @Override
+        protected int[] compute() {
+            if (to - from > PARALLEL_CHUNK_SIZE) {
+                int middle = (from + to) >>> 1;
+                EncodeChunkTask left = new EncodeChunkTask(instructions, words, from, middle);
+                EncodeChunkTask right = new EncodeChunkTask(instructions, words, middle, to);
+                left.fork();
+                int[] rightReferences = right.compute();
+                int[] leftReferences = left.join();
+                int[] references = Arrays.copyOf(leftReferences, leftReferences.length + rightReferences.length);
+                System.arraycopy(rightReferences, 0, references, leftReferences.length, rightReferences.length);
+                return references;
+            }
+            int[] references = new int[16];
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                String line = instructions.get(i);
+                if (line.startsWith("@")) {
+                    String aVal = line.substring(1);
+                    int address = isNumber(aVal) ? Integer.parseInt(aVal) : symbols.get(aVal);
+                    if (address == SymbolTable.NOT_FOUND) {
+                        if (count == references.length) {
+                            references = Arrays.copyOf(references, count * 2);
+                        }
+                        references[count++] = i;
+                    } else {
+                        words[i] = (short) address;
+                    }
+                } else {
+                    words[i] = encodeCInstruction(line);
+                }
+            }
+            return Arrays.copyOf(references, count);
+        }
+    }
+
+    /**
+     * Assemble the file by scanning its memory mapped bytes with AsmLexer.
+     * Label names and new variable names are the only Strings created.
+     * Fills the source map builder if one is set.
+     * @param fileName
+     * @return encoded instructions
+     * @throws IOException
+     */
+    public InstructionBuffer assembleMapped(String fileName) throws IOException {
+        rejectLinePasses("mapped");
+        // Reading, parsing and encoding are one scan over the mapped file, timed as one stage
+        StageMetrics.Timer timer = StageMetrics.start(TOOL, "translate", fileName);
+        AsmLexer lexer = AsmLexer.map(Path.of(fileName));
+        ByteBuffer source = lexer.source();
+        int romAddress = 0;
+        macros.reset();
+        while (lexer.next()) {
+            if (lexer.tokenType() == AsmLexer.TokenType.LABEL) {
+                String label = lexer.tokenText();
+                symbols.put(label, romAddress);
+                if (sourceMap != null) {
+                    sourceMap.addLabel(label, romAddress);
+                }
+            } else if (lexer.tokenType() == AsmLexer.TokenType.DIRECTIVE) {
+                macros.define(readMacroDefinition(lexer), 0);
+            } else if (lexer.tokenType() == AsmLexer.TokenType.C_INSTRUCTION) {
+                MacroTable.Macro macro = macros.get(source, lexer.tokenStart(), lexer.tokenEnd());
+                romAddress += macro == null ? 1 : macro.size();
+            } else {
+                romAddress++;
+            }
         }
+        lexer.rewind();
+        InstructionBuffer output = new InstructionBuffer(romAddress);
+        // Define the macros again in source order, so an invocation before its definition fails as in the other modes
+        macros.reset();
+        while (lexer.next()) {
+            if (lexer.tokenType() == AsmLexer.TokenType.DIRECTIVE) {
+                macros.define(readMacroDefinition(lexer), 0);
+            } else if (lexer.tokenType() == AsmLexer.TokenType.A_INSTRUCTION) {
+                addSourceLine(lexer.lineNumber());
+                output.add(encodeAInstruction(source, lexer.tokenStart(), lexer.tokenEnd()));
+            } else if (lexer.tokenType() == AsmLexer.TokenType.C_INSTRUCTION) {
+                MacroTable.Macro macro = macros.get(source, lexer.tokenStart(), lexer.tokenEnd());
+                if (macro == null) {
+                    addSourceLine(lexer.lineNumber());
+                    output.add(C_INSTRUCTION_ENCODER.encode(source, lexer.tokenStart(), lexer.tokenEnd()));
+                } else {
+                    String operand = MacroTable.operand(lexer.tokenText());
+                    for (int i = 0; i < macro.size(); i++) {
+                        String symbol = macro.symbol(i, operand);
+                        addSourceLine(lexer.lineNumber());
+                        output.add(symbol == null ? macro.word(i) : encodeAValue(symbol));
+                    }
+                }
+            }
+        }
+        timer.stop(source.limit(), 0, output.size());
+        return output;
+    }
 
-        public String getLine() {
-            return line;
+    /**
+     * Dead code elimination and the optimizer rewrite the list of source lines, which the streaming modes never build
+     */
+    private void rejectLinePasses(String mode) {
+        if (deadCodeEliminator != null) {
+            throw new IllegalStateException("Dead code elimination is not supported in " + mode + " mode");
+        }
+        if (optimizer != null) {
+            throw new IllegalStateException("The peephole optimizer is not supported in " + mode + " mode");
         }
+    }
 
-        public void setLine(String line) {
-            this.line = line;
+    private void addSourceLine(int lineNumber) {
+        if (sourceMap != null) {
+            sourceMap.addInstruction(lineNumber);
         }
+    }
 
-        @Override
-        public String toString() {
-            return
-                    "lineNumber=" + lineNumber +
-                    ", line='" + line + '\'' +
-                    '}';
+    /**
+     * Read a macro definition starting at the current ".macro" directive, up to and including ".endm"
+     * @return the definition lines
+     */
+    private List<String> readMacroDefinition(AsmLexer lexer) {
+        List<String> definition = new ArrayList<>();
+        String directive = lexer.tokenText();
+        if (!MacroTable.isDefinition(directive)) {
+            throw new IllegalArgumentException("Unknown directive at line " + lexer.lineNumber() + ": " + directive);
         }
+        definition.add(directive);
+        while (lexer.next()) {
+            String text = lexer.tokenText();
+            if (lexer.tokenType() == AsmLexer.TokenType.A_INSTRUCTION) {
+                definition.add("@" + text);
+            } else if (lexer.tokenType() == AsmLexer.TokenType.LABEL) {
+                definition.add("(" + text + ")");
+            } else {
+                definition.add(text);
+            }
+            if (text.equals(MacroTable.END)) {
+                return definition;
+            }
+        }
+        throw new IllegalArgumentException("Macro definition has no " + MacroTable.END);
+    }
+
+    /**
+     * Assemble the file on its own into a relocatable object module for the Linker.
+     * Module labels are encoded relative to the start of the module, other non-predefined symbols are left unresolved.
+     * @param fileName
+     * @return object module
+     * @throws Exception
+     */
+    public ObjectModule assembleModule(String fileName) throws Exception {
+        List<String> cleanedLines = readCleanedLines(fileName);
+        Map<String, Integer> labels = new LinkedHashMap<>();
+        int romAddress = 0;
+        for (String line : cleanedLines) {
+            if (isLabel(line)) {
+                labels.put(extractLabel(line), romAddress);
+            } else {
+                romAddress++;
+            }
+        }
+
+        short[] code = new short[romAddress];
+        int[] relocations = new int[16];
+        int relocationCount = 0;
+        Map<String, List<Integer>> references = new LinkedHashMap<>();
+        int address = 0;
+        for (String line : cleanedLines) {
+            if (isLabel(line)) {
+                continue;
+            }
+            if (line.startsWith("@")) {
+                String aVal = line.substring(1);
+                Integer labelAddress = labels.get(aVal);
+                if (isNumber(aVal)) {
+                    code[address] = (short) Integer.parseInt(aVal);
+                } else if (labelAddress != null) {
+                    code[address] = labelAddress.shortValue();
+                    if (relocationCount == relocations.length) {
+                        relocations = Arrays.copyOf(relocations, relocationCount * 2);
+                    }
+                    relocations[relocationCount++] = address;
+                } else if (symbols.contains(aVal)) {
+                    code[address] = (short) symbols.get(aVal);
+                } else {
+                    references.computeIfAbsent(aVal, k -> new ArrayList<>()).add(address);
+                }
+            } else {
+                code[address] = encodeCInstruction(line);
+            }
+            address++;
+        }
+
+        Map<String, int[]> unresolved = new LinkedHashMap<>();
+        references.forEach((symbol, addresses) ->
+                unresolved.put(symbol, addresses.stream().mapToInt(Integer::intValue).toArray()));
+        return new ObjectModule(code, labels, Arrays.copyOf(relocations, relocationCount), unresolved);
+    }
+
+    /**
+     * Assemble the file to binary words without rendering any .hack text
+     */
+    public InstructionBuffer assemble(String fileName) throws Exception {
+        translateFirstPass(fileName);
+        return encodeFinalPass(fileName);
+    }
+
+    /**
+     * Assemble in a single streaming pass over the source.
+     * Each instruction is written as soon as it is read. A-instructions referring to a symbol that is
+     * not known yet are written as placeholders and recorded in a fixup list, since the symbol may
+     * be a label defined further down. At the end of the file, the fixups are patched in place with
+     * the label address, or with a newly allocated variable address (in order of first reference),
+     * which gives the same output as translateFirstPass + translateFinalPass.
+     * Memory used is proportional to the number of symbols and forward references, not to the number of lines.
+     * @param fileName
+     * @throws Exception
+     */
+    public void translateSinglePass(String fileName) throws Exception {
+        rejectLinePasses("single-pass");
+        // Symbols referenced before being defined, in order of first reference
+        Map<String, List<Integer>> fixups = new LinkedHashMap<>();
+        // Reading, encoding and writing are interleaved, timed as one stage
+        StageMetrics.Timer timer = StageMetrics.start(TOOL, "translate", fileName);
+        ByteBuffer buffer = ByteBuffer.allocate(HackWriter.LINE_LENGTH * 4096);
+        try (BufferedReader reader = Files.newBufferedReader(Path.of(fileName));
+             FileChannel channel = FileChannel.open(Path.of(fileName + ".hack"), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            int romAddress = 0;
+            List<String> macroDefinition = null;
+            macros.reset();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = cleanLine(line);
+                if (line == null) {
+                    continue;
+                }
+                if (macroDefinition != null) {
+                    macroDefinition.add(line);
+                    if (line.equals(MacroTable.END)) {
+                        macros.define(macroDefinition, 0);
+                        macroDefinition = null;
+                    }
+                    continue;
+                }
+                if (MacroTable.isDefinition(line)) {
+                    macroDefinition = new ArrayList<>();
+                    macroDefinition.add(line);
+                    continue;
+                }
+                if (isLabel(line)) {
+                    symbols.put(extractLabel(line), romAddress);
+                    continue;
+                }
+                MacroTable.Macro macro = line.startsWith("@") ? null : macros.get(line);
+                int words = macro == null ? 1 : macro.size();
+                String operand = macro == null ? null : MacroTable.operand(line);
+                for (int i = 0; i < words; i++) {
+                    short word;
+                    String aVal = macro == null ? (line.startsWith("@") ? line.substring(1) : null) : macro.symbol(i, operand);
+                    if (aVal != null) {
+                        if (isNumber(aVal) || symbols.contains(aVal)) {
+                            word = encodeAValue(aVal);
+                        } else {
+                            fixups.computeIfAbsent(aVal, k -> new ArrayList<>()).add(romAddress);
+                            word = 0;
+                        }
+                    } else if (macro != null) {
+                        word = macro.word(i);
+                    } else {
+                        word = encodeCInstruction(line);
+                    }
+                    if (buffer.remaining() < HackWriter.LINE_LENGTH) {
+                        writeFully(channel, buffer);
+                    }
+                    HackWriter.putLine(buffer, word);
+                    romAddress++;
+                }
+            }
+            if (macroDefinition != null) {
+                throw new IllegalArgumentException("Macro definition has no " + MacroTable.END);
+            }
+            writeFully(channel, buffer);
+
+            // Backpatch forward references. Symbols which never turned out to be labels are variables.
+            for (Map.Entry<String, List<Integer>> fixup : fixups.entrySet()) {
+                short word = encodeAValue(fixup.getKey());
+                for (int address : fixup.getValue()) {
+                    HackWriter.putLine(buffer, word);
+                    buffer.flip();
+                    long position = (long) address * HackWriter.LINE_LENGTH;
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                    buffer.clear();
+                }
+            }
+            timer.stop(Files.size(Path.of(fileName)), (long) romAddress * HackWriter.LINE_LENGTH, romAddress);
+        }
+    }
+
+    private void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
     }
 
     public static void main(String[] args) throws Exception {
         Assembler assembler = new Assembler();
 
-        assembler.translateFirstPass("asm/Pong.asm");
-        assembler.translateFinalPass("asm/Pong.asm");
+        String mode = "";
+        String fileName = "asm/Pong.asm";
+        boolean metrics = false;
+        boolean listing = false;
+        for (String arg : args) {
+            if (arg.equals("--optimize")) {
+                assembler.setOptimizer(new PeepholeOptimizer());
+            } else if (arg.equals("--strip-unreachable")) {
+                assembler.setDeadCodeEliminator(new DeadCodeEliminator());
+            } else if (arg.equals("--metrics")) {
+                metrics = true;
+            } else if (arg.equals("--listing")) {
+                // Line numbers are tracked by the mapped lexer
+                assembler.setSourceMap(new SourceMap.Builder());
+                mode = "--mapped";
+                listing = true;
+            } else if (arg.startsWith("--")) {
+                mode = arg;
+            } else {
+                fileName = arg;
+            }
+        }
+        boolean streaming = mode.equals("--single-pass") || mode.equals("--mapped");
+        if (streaming && assembler.deadCodeEliminator != null) {
+            throw new IllegalArgumentException("--strip-unreachable can not be combined with "
+                    + (listing ? "--listing" : mode));
+        }
+        if (streaming && assembler.optimizer != null) {
+            throw new IllegalArgumentException("--optimize can not be combined with " + (listing ? "--listing" : mode));
+        }
+
+        if (mode.equals("--single-pass")) {
+            assembler.translateSinglePass(fileName);
+        } else if (mode.equals("--mapped")) {
+            InstructionBuffer instructions = assembler.assembleMapped(fileName);
+            assembler.writeOutputMapped(instructions, fileName);
+            if (assembler.sourceMap != null) {
+                SourceMap sourceMap = assembler.sourceMap.build();
+                sourceMap.writeListing(Path.of(fileName + ".lst"));
+                sourceMap.writeSymbols(Path.of(fileName + ".sym"));
+            }
+        } else if (mode.equals("--parallel")) {
+            InstructionBuffer instructions = assembler.assembleParallel(fileName, ForkJoinPool.commonPool());
+            assembler.writeOutput(instructions, fileName);
+        } else {
+            assembler.translateFirstPass(fileName);
+            assembler.translateFinalPass(fileName);
+        }
+        if (assembler.deadCodeEliminator != null) {
+            System.out.print(assembler.deadCodeEliminator.report());
+        }
+        if (assembler.optimizer != null) {
+            System.out.println(assembler.optimizer.report());
+        }
+        if (metrics) {
+            System.out.print(StageMetrics.report());
+        }
     }
 }
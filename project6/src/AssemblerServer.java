@@ -0,0 +1,185 @@
+package com.nand2tetris;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long lived assembler process for batch builds, so JVM startup and JIT warm-up are paid once for many jobs.
+ * Reads jobs from stdin, or from connections on a local port with --port N, one job per line:
+ *
+ *     <id> <file.asm> [--optimize] [--strip-unreachable]
+ *
+ * Jobs run concurrently, each on its own Assembler and so its own symbol table. The response to a job is written
+ * as one block, blocks of different jobs are never interleaved:
+ *
+ *     <id> OK <words> <micros>      followed by the .hack lines and "<id> END"
+ *     <id> ERROR <message>
+ *
+ * A line "METRICS" is answered with the StageMetrics report of the process so far, between "METRICS" and
+ * "METRICS END" lines. A line "QUIT" stops reading from stdin or closes the connection.
+ */
+public class AssemblerServer {
+
+    private static final String QUIT = "QUIT";
+    private static final String METRICS = "METRICS";
+
+    private final ExecutorService executor;
+
+    public AssemblerServer(int threads) {
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Read jobs from the reader until end of input or QUIT, writing responses to out.
+     * Returns once the responses to all jobs read have been written.
+     */
+    public void serve(BufferedReader in, Writer out) throws IOException {
+        CompletionService<Void> jobs = new ExecutorCompletionService<>(executor);
+        int running = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.strip();
+            if (line.equals(QUIT)) {
+                break;
+            }
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (line.equals(METRICS)) {
+                respond(out, METRICS + "\n" + StageMetrics.report() + METRICS + " END\n");
+                continue;
+            }
+            String job = line;
+            jobs.submit(() -> respond(out, runJob(job)), null);
+            running++;
+            // Drop the jobs completed so far, a long lived connection only holds on to the ones still running
+            Future<Void> done;
+            while ((done = jobs.poll()) != null) {
+                finish(done);
+                running--;
+            }
+        }
+        try {
+            for (; running > 0; running--) {
+                finish(jobs.take());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void finish(Future<Void> job) {
+        try {
+            job.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Assemble the job and render the whole response block
+     */
+    String runJob(String job) {
+        String[] parts = job.split("\\s+");
+        String id = parts[0];
+        if (parts.length < 2) {
+            return id + " ERROR missing file name\n";
+        }
+        try {
+            long start = System.nanoTime();
+            Assembler assembler = new Assembler();
+            boolean passes = false;
+            for (int i = 2; i < parts.length; i++) {
+                if (parts[i].equals("--optimize")) {
+                    assembler.setOptimizer(new PeepholeOptimizer());
+                    passes = true;
+                } else if (parts[i].equals("--strip-unreachable")) {
+                    assembler.setDeadCodeEliminator(new DeadCodeEliminator());
+                    passes = true;
+                } else {
+                    return id + " ERROR unknown option " + parts[i] + "\n";
+                }
+            }
+            // Optimization passes work on source lines, otherwise the mapped byte path is fastest
+            InstructionBuffer instructions = passes ? assembler.assemble(parts[1]) : assembler.assembleMapped(parts[1]);
+            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+
+            StringBuilder response = new StringBuilder(instructions.size() * 17 + 64);
+            response.append(id).append(" OK ").append(instructions.size()).append(' ').append(micros).append('\n');
+            char[] hackLine = new char[16];
+            for (int i = 0; i < instructions.size(); i++) {
+                InstructionBuffer.renderWord(instructions.get(i), hackLine, 0);
+                response.append(hackLine).append('\n');
+            }
+            response.append(id).append(" END\n");
+            return response.toString();
+        } catch (Exception e) {
+            return id + " ERROR " + e + "\n";
+        }
+    }
+
+    private void respond(Writer out, String response) {
+        synchronized (out) {
+            try {
+                out.write(response);
+                out.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Accept connections on the loopback interface, each connection is a stream of jobs
+     */
+    public void listen(int port) throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.out.println("Assembler server listening on " + serverSocket.getLocalSocketAddress());
+            while (true) {
+                Socket socket = serverSocket.accept();
+                Thread connection = new Thread(() -> {
+                    try (socket;
+                         BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                         Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII)) {
+                        serve(in, out);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                });
+                connection.start();
+            }
+        }
+    }
+
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+    }
+
+    public static void main(String[] args) throws Exception {
+        AssemblerServer server = new AssemblerServer(Runtime.getRuntime().availableProcessors());
+        if (args.length == 2 && args[0].equals("--port")) {
+            server.listen(Integer.parseInt(args[1]));
+        } else {
+            Writer out = new OutputStreamWriter(System.out, StandardCharsets.US_ASCII);
+            server.serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.US_ASCII)), out);
+            server.shutdown();
+        }
+    }
+}
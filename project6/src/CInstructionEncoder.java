@@ -0,0 +1,213 @@
+package com.nand2tetris;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Encodes C-instructions (dest=comp;jump) to 16 bit words in a single scan over the characters.
+ * Each of dest, comp and jump is packed into an int key (one byte per character, at most 4 characters)
+ * while scanning, and the key is looked up in a perfect hash table built from the assembler's
+ * comp/dest/jmp lookups. Nothing is allocated per instruction.
+ */
+public class CInstructionEncoder {
+
+    private static final int MAX_FIELD_LENGTH = 4;
+
+    private final PerfectHashTable compTable;
+    private final PerfectHashTable destTable;
+    private final PerfectHashTable jumpTable;
+
+    public CInstructionEncoder(Map<String, String> compLookup, Map<String, String> destLookup,
+                               Map<String, String> jmpLookup) {
+        int size = compLookup.size() * 2;
+        int[] compKeys = new int[size];
+        int[] compValues = new int[size];
+        int i = 0;
+        for (Map.Entry<String, String> entry : compLookup.entrySet()) {
+            int bits = Integer.parseInt(entry.getValue(), 2);
+            // Table has the A forms, the M forms are the same bits with the a-bit set
+            compKeys[i] = packKey(entry.getKey());
+            compValues[i++] = bits;
+            compKeys[i] = packKey(entry.getKey().replace('A', 'M'));
+            compValues[i++] = entry.getKey().contains("A") ? (1 << 6 | bits) : bits;
+        }
+        this.compTable = new PerfectHashTable(compKeys, compValues, i);
+        this.destTable = fromLookup(destLookup);
+        this.jumpTable = fromLookup(jmpLookup);
+    }
+
+    public short encode(CharSequence cCommand) {
+        return encode(cCommand, 0, cCommand.length());
+    }
+
+    /**
+     * Encode the C-instruction in source[start, end). Blanks are skipped.
+     */
+    public short encode(CharSequence source, int start, int end) {
+        int destKey = 0;
+        int compKey = 0;
+        int key = 0;
+        int length = 0;
+        boolean seenJump = false;
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            if (c == '=') {
+                if (seenJump || destKey != 0) {
+                    throw invalid(source, start, end);
+                }
+                destKey = key;
+                key = 0;
+                length = 0;
+            } else if (c == ';') {
+                if (seenJump) {
+                    throw invalid(source, start, end);
+                }
+                compKey = key;
+                seenJump = true;
+                key = 0;
+                length = 0;
+            } else if (c != ' ' && c != '\t') {
+                if (++length > MAX_FIELD_LENGTH || c > 0x7F) {
+                    throw invalid(source, start, end);
+                }
+                key = key << 8 | c;
+            }
+        }
+        int word = seenJump ? encodeFields(destKey, compKey, key) : encodeFields(destKey, key, 0);
+        if (word < 0) {
+            throw invalid(source, start, end);
+        }
+        return (short) word;
+    }
+
+    /**
+     * Encode the C-instruction in the ASCII bytes source[start, end), same rules as for characters
+     */
+    public short encode(ByteBuffer source, int start, int end) {
+        int destKey = 0;
+        int compKey = 0;
+        int key = 0;
+        int length = 0;
+        boolean seenJump = false;
+        for (int i = start; i < end; i++) {
+            int c = source.get(i) & 0xFF;
+            if (c == '=') {
+                if (seenJump || destKey != 0) {
+                    throw invalid(source, start, end);
+                }
+                destKey = key;
+                key = 0;
+                length = 0;
+            } else if (c == ';') {
+                if (seenJump) {
+                    throw invalid(source, start, end);
+                }
+                compKey = key;
+                seenJump = true;
+                key = 0;
+                length = 0;
+            } else if (c != ' ' && c != '\t') {
+                if (++length > MAX_FIELD_LENGTH || c > 0x7F) {
+                    throw invalid(source, start, end);
+                }
+                key = key << 8 | c;
+            }
+        }
+        int word = seenJump ? encodeFields(destKey, compKey, key) : encodeFields(destKey, key, 0);
+        if (word < 0) {
+            throw invalid(source, start, end);
+        }
+        return (short) word;
+    }
+
+    /**
+     * @return the encoded instruction, -1 if any field is not valid
+     */
+    private int encodeFields(int destKey, int compKey, int jumpKey) {
+        int comp = compTable.get(compKey);
+        int dest = destKey == 0 ? 0 : destTable.get(destKey);
+        int jump = jumpKey == 0 ? 0 : jumpTable.get(jumpKey);
+        if (comp < 0 || dest < 0 || jump < 0) {
+            return -1;
+        }
+        return 0b111 << 13 | comp << 6 | dest << 3 | jump;
+    }
+
+    private static IllegalArgumentException invalid(CharSequence source, int start, int end) {
+        return new IllegalArgumentException("Invalid C-instruction: " + source.subSequence(start, end));
+    }
+
+    private static IllegalArgumentException invalid(ByteBuffer source, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        source.get(start, bytes);
+        return new IllegalArgumentException("Invalid C-instruction: " + new String(bytes, StandardCharsets.US_ASCII));
+    }
+
+    private static PerfectHashTable fromLookup(Map<String, String> lookup) {
+        int[] keys = new int[lookup.size()];
+        int[] values = new int[lookup.size()];
+        int i = 0;
+        for (Map.Entry<String, String> entry : lookup.entrySet()) {
+            keys[i] = packKey(entry.getKey());
+            values[i++] = Integer.parseInt(entry.getValue(), 2);
+        }
+        return new PerfectHashTable(keys, values, i);
+    }
+
+    static int packKey(String field) {
+        int key = 0;
+        for (int i = 0; i < field.length(); i++) {
+            key = key << 8 | field.charAt(i);
+        }
+        return key;
+    }
+
+    /**
+     * Multiplicative hash table whose multiplier is searched at construction time so that no two keys collide,
+     * a lookup is then a single probe and compare.
+     */
+    static class PerfectHashTable {
+        private final int[] keys;
+        private final int[] values;
+        private final int multiplier;
+        private final int shift;
+
+        PerfectHashTable(int[] keys, int[] values, int count) {
+            int bits = 32 - Integer.numberOfLeadingZeros(Math.max(count, 2) * 2 - 1);
+            while (true) {
+                for (int candidate = 0x9E3779B1; candidate != 0x9E3779B1 + 2 * 4096; candidate += 2) {
+                    int[] tableKeys = new int[1 << bits];
+                    int[] tableValues = new int[1 << bits];
+                    Arrays.fill(tableValues, -1);
+                    boolean collision = false;
+                    for (int i = 0; i < count && !collision; i++) {
+                        int slot = (keys[i] * candidate) >>> (32 - bits);
+                        if (tableValues[slot] >= 0) {
+                            collision = tableKeys[slot] != keys[i] || tableValues[slot] != values[i];
+                        }
+                        tableKeys[slot] = keys[i];
+                        tableValues[slot] = values[i];
+                    }
+                    if (!collision) {
+                        this.keys = tableKeys;
+                        this.values = tableValues;
+                        this.multiplier = candidate;
+                        this.shift = 32 - bits;
+                        return;
+                    }
+                }
+                bits++;
+            }
+        }
+
+        /**
+         * @return value for the key, -1 if the key is not in the table
+         */
+        int get(int key) {
+            int slot = (key * multiplier) >>> shift;
+            return keys[slot] == key ? values[slot] : -1;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.nand2tetris;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes code that can never run, so that big programs linked with the whole OS fit into the 32K ROM.
+ * The cleaned source is split into blocks at labels. A block falls through to the next one unless it contains
+ * an unconditional jump, and leads to every label it references with @label: conditional and unconditional jump
+ * targets, but also labels whose address is taken as data such as return addresses. Blocks not reachable from
+ * address 0 are dropped, as well as code following an unconditional jump inside a block, together with labels
+ * no kept code refers to.
+ * Programs using numbers as ROM addresses of their code (see Assembler.usesNumericCodeAddresses) are left
+ * untouched, since those addresses would move.
+ */
+public class DeadCodeEliminator {
+
+    private static final String START = "<start>";
+
+    private final Map<String, Integer> removedWordsByLabel = new LinkedHashMap<>();
+    private boolean skipped;
+
+    public List<String> eliminate(List<String> cleanedLines) {
+        removedWordsByLabel.clear();
+        skipped = Assembler.usesNumericCodeAddresses(cleanedLines);
+        if (skipped) {
+            return cleanedLines;
+        }
+
+        // Block i spans blockStarts[i] up to the next block start, its first line is its label (except for block 0)
+        List<Integer> blockStarts = new ArrayList<>();
+        Map<String, Integer> blockOfLabel = new HashMap<>();
+        blockStarts.add(0);
+        for (int i = 0; i < cleanedLines.size(); i++) {
+            String line = cleanedLines.get(i);
+            if (isLabel(line)) {
+                if (i > 0) {
+                    blockStarts.add(i);
+                }
+                blockOfLabel.put(label(line), blockStarts.size() - 1);
+            }
+        }
+        blockStarts.add(cleanedLines.size());
+        int blockCount = blockStarts.size() - 1;
+
+        boolean[] reachable = new boolean[blockCount];
+        // Code of a block after an unconditional jump is dead as well
+        int[] liveEnds = new int[blockCount];
+        Set<String> referencedLabels = new HashSet<>();
+        Deque<Integer> worklist = new ArrayDeque<>();
+        reachable[0] = true;
+        worklist.push(0);
+        while (!worklist.isEmpty()) {
+            int block = worklist.pop();
+            boolean fallsThrough = true;
+            liveEnds[block] = blockStarts.get(block + 1);
+            for (int i = blockStarts.get(block); i < blockStarts.get(block + 1); i++) {
+                String line = cleanedLines.get(i);
+                if (line.startsWith("@")) {
+                    Integer target = blockOfLabel.get(line.substring(1));
+                    if (target != null) {
+                        referencedLabels.add(line.substring(1));
+                        if (!reachable[target]) {
+                            reachable[target] = true;
+                            worklist.push(target);
+                        }
+                    }
+                } else if (line.endsWith(";JMP")) {
+                    fallsThrough = false;
+                    liveEnds[block] = i + 1;
+                    break;
+                }
+            }
+            if (fallsThrough && block + 1 < blockCount && !reachable[block + 1]) {
+                reachable[block + 1] = true;
+                worklist.push(block + 1);
+            }
+        }
+
+        List<String> output = new ArrayList<>(cleanedLines.size());
+        for (int block = 0; block < blockCount; block++) {
+            int start = blockStarts.get(block);
+            int end = blockStarts.get(block + 1);
+            String name = start < end && isLabel(cleanedLines.get(start)) ? label(cleanedLines.get(start)) : START;
+            int liveEnd = reachable[block] ? liveEnds[block] : start;
+            int words = 0;
+            for (int i = liveEnd; i < end; i++) {
+                words += isLabel(cleanedLines.get(i)) ? 0 : 1;
+            }
+            if (words > 0) {
+                removedWordsByLabel.put(name, words);
+            }
+            for (int i = start; i < liveEnd; i++) {
+                String line = cleanedLines.get(i);
+                if (!isLabel(line) || referencedLabels.contains(label(line))) {
+                    output.add(line);
+                }
+            }
+        }
+        return output;
+    }
+
+    public int getWordsRemoved() {
+        return removedWordsByLabel.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    /**
+     * Words removed for each block, by the label starting the block
+     */
+    public Map<String, Integer> getRemovedWordsByLabel() {
+        return removedWordsByLabel;
+    }
+
+    public String report() {
+        if (skipped) {
+            return String.format("Dead code elimination skipped: program uses numeric ROM addresses%n");
+        }
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Dead code elimination removed %d ROM words (%d bytes)%n",
+                getWordsRemoved(), getWordsRemoved() * 2));
+        removedWordsByLabel.forEach((label, words) ->
+                report.append(String.format("  %-40s %6d words %7d bytes%n", label, words, words * 2)));
+        return report.toString();
+    }
+
+    private static boolean isLabel(String line) {
+        return line.startsWith("(");
+    }
+
+    private static String label(String line) {
+        return line.substring(1, line.length() - 1);
+    }
+}
@@ -0,0 +1,398 @@
+package com.nand2tetris;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Emulator of the Hack computer, with the semantics of project5 CPU.hdl and Memory.hdl.
+ * The ROM holds the 32K words of the program (unused words are 0, so running past the program executes @0).
+ * Data memory is the RAM (0..16383), the screen memory map (16384..24575) and the keyboard register. As in
+ * Memory.hdl every address from 24576 up reads the keyboard and writes to it are ignored, so only 24577 words
+ * are stored.
+ * Within one C-instruction M is read and written at the A value before the instruction, and a jump goes to
+ * that same A value, like the clocked A register of the CPU chip.
+ */
+public class HackComputer {
+
+    public static final int ROM_SIZE = 32768;
+    public static final int SCREEN = 16384;
+    public static final int KBD = 24576;
+    // Writes are tracked per page of 512 words (16 screen rows), one bit of a long per page
+    public static final int PAGE_SHIFT = 9;
+    public static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    public static final long SCREEN_PAGES = ((1L << ((KBD - SCREEN) >> PAGE_SHIFT)) - 1) << (SCREEN >> PAGE_SHIFT);
+    // The last page only holds the keyboard
+    public static final int RAM_PAGES = (KBD >> PAGE_SHIFT) + 1;
+
+    final short[] rom;
+    final short[] ram = new short[KBD + 1];
+    private int programSize;
+
+    // Registers are kept sign extended, like the 16 bit values they hold
+    int a;
+    int d;
+    int pc;
+    long cycles;
+    boolean halted;
+    // Pages written since the bits were last folded into the trackers
+    long dirtyPages;
+    // Pages written since each tracker last took them
+    private long[] trackedPages = new long[0];
+
+    // Snapshot the RAM was last taken as or restored from, and the tracker of pages written since
+    private HackSnapshot baseSnapshot;
+    private int snapshotTracker = -1;
+
+    public HackComputer(short[] program) {
+        this(program, program.length);
+    }
+
+    public HackComputer(short[] program, int size) {
+        if (size > ROM_SIZE) {
+            throw new IllegalArgumentException("Program of " + size + " words does not fit in the ROM");
+        }
+        rom = new short[ROM_SIZE];
+        System.arraycopy(program, 0, rom, 0, size);
+        programSize = size;
+    }
+
+    /**
+     * Computer with cleared RAM and registers running the same program. The ROM is never written, so its
+     * array is shared instead of copied.
+     */
+    public HackComputer(HackComputer program) {
+        rom = program.rom;
+        programSize = program.programSize;
+    }
+
+    public HackComputer(InstructionBuffer program) {
+        this(program.toArray());
+    }
+
+    public static HackComputer load(Path hackFile) throws IOException {
+        return new HackComputer(readHack(hackFile));
+    }
+
+    /**
+     * Parse a .hack file as written by Assembler.writeOutput, one 16 character binary word per line
+     */
+    public static short[] readHack(Path hackFile) throws IOException {
+        byte[] text = Files.readAllBytes(hackFile);
+        short[] words = new short[text.length / HackWriter.LINE_LENGTH + 1];
+        int size = 0;
+        int lineNumber = 1;
+        int word = 0;
+        int bits = 0;
+        for (int i = 0; i <= text.length; i++) {
+            byte c = i < text.length ? text[i] : (byte) '\n';
+            if (c == '0' || c == '1') {
+                word = word << 1 | (c - '0');
+                bits++;
+            } else if (c == '\n') {
+                if (bits == 16) {
+                    if (size == words.length) {
+                        words = Arrays.copyOf(words, size * 2);
+                    }
+                    words[size++] = (short) word;
+                } else if (bits != 0) {
+                    throw new IllegalArgumentException("Line " + lineNumber + " of " + hackFile + " is not 16 bits");
+                }
+                word = 0;
+                bits = 0;
+                lineNumber++;
+            } else if (c != '\r' && c != ' ' && c != '\t') {
+                throw new IllegalArgumentException("Unexpected character on line " + lineNumber + " of " + hackFile);
+            }
+        }
+        return Arrays.copyOf(words, size);
+    }
+
+    /**
+     * Reset input of the CPU: execution restarts at address 0, registers and memory keep their values
+     */
+    public void reset() {
+        pc = 0;
+        halted = false;
+    }
+
+    public void step() {
+        run(1);
+    }
+
+    /**
+     * Execute up to maxCycles instructions, stopping early when the program is halted in its final loop
+     * @return the number of instructions executed
+     */
+    public long run(long maxCycles) {
+        final short[] rom = this.rom;
+        final short[] ram = this.ram;
+        int a = this.a;
+        int d = this.d;
+        int pc = this.pc;
+        long dirty = dirtyPages;
+        long executed = 0;
+        while (executed < maxCycles) {
+            int instruction = rom[pc];
+            executed++;
+            if (instruction >= 0) {
+                // A-instruction, bit 15 is clear
+                a = instruction;
+                pc = (pc + 1) & 0x7FFF;
+                continue;
+            }
+            int address = a & 0x7FFF;
+            int y = (instruction & 0x1000) != 0 ? ram[Math.min(address, KBD)] : a;
+            int out = alu(instruction >> 6 & 0x3F, d, y);
+            if ((instruction & 0x08) != 0 && address < KBD) {
+                ram[address] = (short) out;
+                dirty |= 1L << (address >>> PAGE_SHIFT);
+            }
+            if ((instruction & 0x20) != 0) {
+                a = out;
+            }
+            if ((instruction & 0x10) != 0) {
+                d = out;
+            }
+            int condition = out < 0 ? 4 : out == 0 ? 2 : 1;
+            if ((instruction & condition) != 0) {
+                if (address == pc - 1 && (instruction & 0x38) == 0 && rom[address] == address) {
+                    // "(END) @END 0;JMP": nothing can change any more
+                    halted = true;
+                    pc = address;
+                    break;
+                }
+                pc = address;
+            } else {
+                pc = (pc + 1) & 0x7FFF;
+            }
+        }
+        this.a = a;
+        this.d = d;
+        this.pc = pc;
+        dirtyPages = dirty;
+        cycles += executed;
+        return executed;
+    }
+
+    /**
+     * The ALU of the CPU chip on the zx, nx, zy, ny, f, no control bits
+     */
+    static int alu(int control, int x, int y) {
+        switch (control) {
+            case 0b101010: return 0;
+            case 0b111111: return 1;
+            case 0b111010: return -1;
+            case 0b001100: return x;
+            case 0b110000: return y;
+            case 0b001101: return ~x;
+            case 0b110001: return ~y;
+            case 0b001111: return (short) -x;
+            case 0b110011: return (short) -y;
+            case 0b011111: return (short) (x + 1);
+            case 0b110111: return (short) (y + 1);
+            case 0b001110: return (short) (x - 1);
+            case 0b110010: return (short) (y - 1);
+            case 0b000010: return (short) (x + y);
+            case 0b010011: return (short) (x - y);
+            case 0b000111: return (short) (y - x);
+            case 0b000000: return x & y;
+            case 0b010101: return x | y;
+            default:
+                // Combinations outside the instruction set still compute what the chip computes
+                if ((control & 0b100000) != 0) x = 0;
+                if ((control & 0b010000) != 0) x = ~x;
+                if ((control & 0b001000) != 0) y = 0;
+                if ((control & 0b000100) != 0) y = ~y;
+                int out = (control & 0b000010) != 0 ? x + y : x & y;
+                if ((control & 0b000001) != 0) out = ~out;
+                return (short) out;
+        }
+    }
+
+    public int getA() {
+        return (short) a;
+    }
+
+    public int getD() {
+        return (short) d;
+    }
+
+    public int getPc() {
+        return pc;
+    }
+
+    public long getCycles() {
+        return cycles;
+    }
+
+    public boolean isHalted() {
+        return halted;
+    }
+
+    /**
+     * Pages written since their bits were last cleared, bit i for addresses i * PAGE_SIZE up to (i + 1) * PAGE_SIZE
+     */
+    public long getDirtyPages() {
+        return dirtyPages;
+    }
+
+    /**
+     * Start tracking written pages for one consumer, all pages count as written until it first takes them
+     * @return the tracker to pass to takeDirtyPages
+     */
+    public int addDirtyTracker() {
+        trackedPages = Arrays.copyOf(trackedPages, trackedPages.length + 1);
+        trackedPages[trackedPages.length - 1] = -1L;
+        return trackedPages.length - 1;
+    }
+
+    /**
+     * Pages written since the tracker last took them, bit i for addresses i * PAGE_SIZE up to (i + 1) * PAGE_SIZE
+     */
+    public long takeDirtyPages(int tracker) {
+        if (dirtyPages != 0) {
+            for (int i = 0; i < trackedPages.length; i++) {
+                trackedPages[i] |= dirtyPages;
+            }
+            dirtyPages = 0;
+        }
+        long pages = trackedPages[tracker];
+        trackedPages[tracker] = 0;
+        return pages;
+    }
+
+    /**
+     * Immutable copy of RAM, registers and cycle count. Pages not written since the previous snapshot taken or
+     * restored on this computer are shared with it instead of copied.
+     */
+    public HackSnapshot snapshot() {
+        if (snapshotTracker < 0) {
+            snapshotTracker = addDirtyTracker();
+        }
+        long written = takeDirtyPages(snapshotTracker);
+        short[][] pages = new short[RAM_PAGES][];
+        for (int page = 0; page < RAM_PAGES; page++) {
+            if (baseSnapshot != null && (written & 1L << page) == 0) {
+                pages[page] = baseSnapshot.pages[page];
+            } else {
+                int from = page << PAGE_SHIFT;
+                pages[page] = Arrays.copyOfRange(ram, from, Math.min(from + PAGE_SIZE, ram.length));
+            }
+        }
+        baseSnapshot = new HackSnapshot(pages, a, d, pc, cycles, halted);
+        return baseSnapshot;
+    }
+
+    /**
+     * Bring RAM, registers and cycle count back to the snapshot. Only pages written since the previous snapshot
+     * or restore, or that differ between it and this snapshot, are copied.
+     */
+    public void restore(HackSnapshot snapshot) {
+        if (snapshotTracker < 0) {
+            snapshotTracker = addDirtyTracker();
+        }
+        long copy = takeDirtyPages(snapshotTracker) & ((1L << RAM_PAGES) - 1);
+        for (int page = 0; page < RAM_PAGES; page++) {
+            if (baseSnapshot == null || baseSnapshot.pages[page] != snapshot.pages[page]) {
+                copy |= 1L << page;
+            }
+        }
+        long pages = copy;
+        while (pages != 0) {
+            int page = Long.numberOfTrailingZeros(pages);
+            pages &= pages - 1;
+            System.arraycopy(snapshot.pages[page], 0, ram, page << PAGE_SHIFT, snapshot.pages[page].length);
+        }
+        // The copied pages changed for every other tracker, not for the snapshots
+        dirtyPages |= copy;
+        takeDirtyPages(snapshotTracker);
+        baseSnapshot = snapshot;
+        a = snapshot.a;
+        d = snapshot.d;
+        pc = snapshot.pc;
+        cycles = snapshot.cycles;
+        halted = snapshot.halted;
+    }
+
+    public int getProgramSize() {
+        return programSize;
+    }
+
+    public void setA(int value) {
+        a = (short) value;
+    }
+
+    public void setD(int value) {
+        d = (short) value;
+    }
+
+    public void setPc(int value) {
+        pc = value & 0x7FFF;
+        halted = false;
+    }
+
+    /**
+     * Data memory as the CPU reads it, addresses from KBD up read the keyboard
+     */
+    public int peek(int address) {
+        return ram[Math.min(address & 0x7FFF, KBD)];
+    }
+
+    /**
+     * Set a word of data memory from outside the CPU, e.g. test setup. The keyboard is set with setKeyboard.
+     */
+    public void poke(int address, int value) {
+        address &= 0x7FFF;
+        if (address < KBD) {
+            ram[address] = (short) value;
+            dirtyPages |= 1L << (address >>> PAGE_SHIFT);
+        }
+    }
+
+    /**
+     * Key code of the key currently pressed, 0 for none
+     */
+    public void setKeyboard(int key) {
+        ram[KBD] = (short) key;
+        dirtyPages |= 1L << (KBD >>> PAGE_SHIFT);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String mode = "";
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                mode = arg;
+            } else {
+                positional.add(arg);
+            }
+        }
+        String fileName = positional.size() > 0 ? positional.get(0) : "asm/Pong.asm";
+        long maxCycles = positional.size() > 1 ? Long.parseLong(positional.get(1)) : 100_000_000L;
+
+        HackComputer computer;
+        if (fileName.endsWith(".asm")) {
+            computer = new HackComputer(new Assembler().assembleMapped(fileName));
+        } else {
+            computer = load(Path.of(fileName));
+        }
+        long start = System.nanoTime();
+        if (mode.equals("--micro-ops")) {
+            new MicroOpEngine(computer).run(maxCycles);
+        } else if (mode.equals("--jit")) {
+            new HackJit(computer).run(maxCycles);
+        } else {
+            computer.run(maxCycles);
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.println("Executed " + computer.getCycles() + " instructions in " + nanos / 1_000_000 + " ms ("
+                + computer.getCycles() * 1000 / Math.max(nanos, 1) + " MIPS)" + (computer.isHalted() ? ", halted" : ""));
+        for (int i = 0; i < 16; i++) {
+            System.out.println("RAM[" + i + "] = " + computer.peek(i));
+        }
+    }
+}
@@ -0,0 +1,535 @@
+package com.nand2tetris;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tiered runner of a HackComputer that compiles hot basic blocks to JVM bytecode.
+ * A block starts at a jump target (any address execution enters from the dispatcher) and runs straight up to
+ * and including the first jumping C-instruction, or MAX_BLOCK instructions. Cold blocks run on the
+ * HackComputer interpreter, and a block entered COMPILE_THRESHOLD times is compiled into a hidden class.
+ * Compiled blocks chain through the dispatch loop without touching the interpreter state, with A and D in an
+ * int[] between blocks and in locals inside a block.
+ * A block only runs compiled when the whole block fits in the cycle budget, so cycle counts stay exact. The
+ * "(END) @END 0;JMP" loop is never compiled and is left to the interpreter, which detects it.
+ */
+public class HackJit {
+
+    public static final int COMPILE_THRESHOLD = 1000;
+    public static final int MAX_BLOCK = 256;
+
+    /**
+     * A compiled block, runs the block on the RAM with regs[0] = A and regs[1] = D.
+     * Pages written are or-ed into regs[2] (pages 0-31) and regs[3] (pages 32-63).
+     * @return the address of the next instruction
+     */
+    public interface Block {
+        int run(short[] ram, int[] regs);
+    }
+
+    private final HackComputer computer;
+    private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    private final Block[] blocks = new Block[HackComputer.ROM_SIZE];
+    // Length of the block starting at each address, 0 until it is first entered
+    private final int[] blockLengths = new int[HackComputer.ROM_SIZE];
+    // Entries into each block while it is interpreted, -1 for blocks that are never compiled
+    private final int[] counters = new int[HackComputer.ROM_SIZE];
+    private final int[] regs = new int[4];
+    private int compiledCount;
+
+    public HackJit(HackComputer computer) {
+        this.computer = computer;
+    }
+
+    public int getCompiledCount() {
+        return compiledCount;
+    }
+
+    /**
+     * Execute up to maxCycles instructions, stopping early when the program is halted in its final loop
+     * @return the number of instructions executed
+     */
+    public long run(long maxCycles) {
+        final short[] ram = computer.ram;
+        final Block[] blocks = this.blocks;
+        final int[] blockLengths = this.blockLengths;
+        final int[] regs = this.regs;
+        long executed = 0;
+        while (executed < maxCycles) {
+            int pc = computer.pc;
+            int length = blockLength(pc);
+            Block block = blocks[pc];
+            if (block != null && length <= maxCycles - executed) {
+                long compiledCycles = 0;
+                regs[0] = computer.a;
+                regs[1] = computer.d;
+                regs[2] = 0;
+                regs[3] = 0;
+                do {
+                    pc = block.run(ram, regs);
+                    compiledCycles += length;
+                    block = blocks[pc];
+                    length = blockLengths[pc];
+                } while (block != null && length <= maxCycles - executed - compiledCycles);
+                computer.a = regs[0];
+                computer.d = regs[1];
+                computer.dirtyPages |= (long) regs[3] << 32 | (regs[2] & 0xFFFFFFFFL);
+                computer.pc = pc;
+                computer.cycles += compiledCycles;
+                executed += compiledCycles;
+            } else {
+                if (block == null && counters[pc] >= 0 && ++counters[pc] == COMPILE_THRESHOLD) {
+                    compile(pc, length);
+                }
+                executed += computer.run(Math.min(length, maxCycles - executed));
+                if (computer.halted) {
+                    break;
+                }
+            }
+        }
+        return executed;
+    }
+
+    private int blockLength(int start) {
+        int length = blockLengths[start];
+        if (length == 0) {
+            short[] rom = computer.rom;
+            int instruction;
+            do {
+                instruction = rom[(start + length) & 0x7FFF];
+                length++;
+            } while (!(instruction < 0 && (instruction & 0x07) != 0) && length < MAX_BLOCK);
+            blockLengths[start] = length;
+        }
+        return length;
+    }
+
+    private void compile(int start, int length) {
+        short[] rom = computer.rom;
+        int last = (start + length - 1) & 0x7FFF;
+        int previous = (last - 1) & 0x7FFF;
+        if (length >= 2 && rom[previous] == previous && (rom[last] & 0x38) == 0) {
+            // Final loop of the program, the interpreter detects it
+            counters[start] = -1;
+            return;
+        }
+        try {
+            byte[] classFile = new BlockCompiler(rom, start, length).compile();
+            Class<?> blockClass = lookup.defineHiddenClass(classFile, true).lookupClass();
+            blocks[start] = (Block) blockClass.getDeclaredConstructor().newInstance();
+            compiledCount++;
+        } catch (ReflectiveOperationException | IOException e) {
+            throw new IllegalStateException("Cannot compile block at " + start, e);
+        }
+    }
+
+    /**
+     * M write of compiled code when the address is only known at run time
+     */
+    static void store(short[] ram, int[] regs, int a, int value) {
+        int address = a & 0x7FFF;
+        if (address < HackComputer.KBD) {
+            ram[address] = (short) value;
+            int page = address >>> HackComputer.PAGE_SHIFT;
+            regs[2 + (page >> 5)] |= 1 << page;
+        }
+    }
+
+    /**
+     * Next address after a conditional jump, so compiled blocks have no branches of their own
+     */
+    static int branch(int out, int jump, int target, int next) {
+        int condition = out < 0 ? 4 : out == 0 ? 2 : 1;
+        return (jump & condition) != 0 ? target : next;
+    }
+
+    /**
+     * Writes the class file of one block: a final class implementing Block with a single run method of straight
+     * line code. Class file version 52 without branches needs no stack map frames.
+     * While an @X is the last write to A, A is a constant and M is accessed at a constant index.
+     */
+    static class BlockCompiler {
+
+        private static final String CLASS_NAME = "com/nand2tetris/HackJitBlock";
+        private static final String THIS_CLASS = "com/nand2tetris/HackJit";
+
+        // Locals of run
+        private static final int RAM = 1;
+        private static final int REGS = 2;
+        private static final int A = 3;
+        private static final int D = 4;
+        private static final int OUT = 5;
+        private static final int TARGET = 6;
+
+        // Opcodes
+        private static final int ICONST_0 = 0x03;
+        private static final int BIPUSH = 0x10;
+        private static final int SIPUSH = 0x11;
+        private static final int LDC_W = 0x13;
+        private static final int ILOAD = 0x15;
+        private static final int ALOAD = 0x19;
+        private static final int IALOAD = 0x2e;
+        private static final int SALOAD = 0x35;
+        private static final int ISTORE = 0x36;
+        private static final int IASTORE = 0x4f;
+        private static final int SASTORE = 0x56;
+        private static final int DUP2 = 0x5c;
+        private static final int IADD = 0x60;
+        private static final int ISUB = 0x64;
+        private static final int INEG = 0x74;
+        private static final int IAND = 0x7e;
+        private static final int IOR = 0x80;
+        private static final int IXOR = 0x82;
+        private static final int I2S = 0x93;
+        private static final int IRETURN = 0xac;
+        private static final int RETURN = 0xb1;
+        private static final int INVOKESPECIAL = 0xb7;
+        private static final int INVOKESTATIC = 0xb8;
+
+        private final short[] rom;
+        private final int start;
+        private final int length;
+
+        private final ByteArrayOutputStream constants = new ByteArrayOutputStream();
+        private final DataOutputStream pool = new DataOutputStream(constants);
+        private final Map<String, Integer> poolIndexes = new HashMap<>();
+        private int poolCount = 1;
+
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        // Value of A while it is known at compile time, -1 otherwise
+        private int constantA = -1;
+        // Pages written at constant addresses, marked once at the end of the block
+        private long constantPages;
+
+        BlockCompiler(short[] rom, int start, int length) {
+            this.rom = rom;
+            this.start = start;
+            this.length = length;
+        }
+
+        byte[] compile() throws IOException {
+            int thisClass = classConstant(CLASS_NAME);
+            int superClass = classConstant("java/lang/Object");
+            int blockInterface = classConstant(THIS_CLASS + "$Block");
+            int objectInit = methodConstant("java/lang/Object", "<init>", "()V");
+            int initName = utf8("<init>");
+            int initType = utf8("()V");
+            int runName = utf8("run");
+            int runType = utf8("([S[I)I");
+            int codeName = utf8("Code");
+
+            byte[] runCode = runCode();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(52);
+            out.writeShort(poolCount);
+            constants.writeTo(out);
+            out.writeShort(0x0010 | 0x0020); // final, super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(blockInterface);
+            out.writeShort(0); // fields
+            out.writeShort(2); // methods
+
+            out.writeShort(0x0001);
+            out.writeShort(initName);
+            out.writeShort(initType);
+            writeCode(out, codeName, 1, 1, new byte[] {
+                    0x2a, (byte) INVOKESPECIAL, (byte) (objectInit >> 8), (byte) objectInit, (byte) RETURN});
+
+            out.writeShort(0x0001);
+            out.writeShort(runName);
+            out.writeShort(runType);
+            writeCode(out, codeName, 8, TARGET + 1, runCode);
+
+            out.writeShort(0); // attributes
+            return bytes.toByteArray();
+        }
+
+        private static void writeCode(DataOutputStream out, int codeName, int maxStack, int maxLocals, byte[] code)
+                throws IOException {
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributes
+        }
+
+        private byte[] runCode() throws IOException {
+            load(REGS);
+            emit(ICONST_0);
+            emit(IALOAD);
+            store(A);
+            load(REGS);
+            pushInt(1);
+            emit(IALOAD);
+            store(D);
+
+            for (int i = 0; i < length; i++) {
+                int address = (start + i) & 0x7FFF;
+                int instruction = rom[address];
+                if (instruction >= 0) {
+                    pushInt(instruction);
+                    store(A);
+                    constantA = instruction;
+                    continue;
+                }
+                int dest = instruction >> 3 & 0x07;
+                int jump = instruction & 0x07;
+                int next = (address + 1) & 0x7FFF;
+
+                computation(instruction >> 6 & 0x7F);
+                store(OUT);
+                // The jump target is A before this instruction
+                int jumpTarget = constantA;
+                if (jump != 0 && jumpTarget < 0) {
+                    pushAddress();
+                    store(TARGET);
+                }
+                if ((dest & 0x01) != 0) {
+                    storeM();
+                }
+                if ((dest & 0x04) != 0) {
+                    load(OUT);
+                    store(A);
+                }
+                if ((dest & 0x02) != 0) {
+                    load(OUT);
+                    store(D);
+                }
+                if (jump == 7) {
+                    pushTarget(jumpTarget);
+                    return finish();
+                } else if (jump != 0) {
+                    load(OUT);
+                    pushInt(jump);
+                    pushTarget(jumpTarget);
+                    pushInt(next);
+                    invokeStatic(THIS_CLASS, "branch", "(IIII)I");
+                    return finish();
+                }
+                if ((dest & 0x04) != 0) {
+                    constantA = -1;
+                }
+            }
+            pushInt((start + length) & 0x7FFF);
+            return finish();
+        }
+
+        private void pushTarget(int jumpTarget) {
+            if (jumpTarget >= 0) {
+                pushInt(jumpTarget);
+            } else {
+                load(TARGET);
+            }
+        }
+
+        /**
+         * Store A and D back and return the next address on the stack
+         */
+        private byte[] finish() throws IOException {
+            for (int half = 0; half < 2; half++) {
+                int pages = (int) (constantPages >>> (32 * half));
+                if (pages != 0) {
+                    load(REGS);
+                    pushInt(2 + half);
+                    emit(DUP2);
+                    emit(IALOAD);
+                    pushConstant(pages);
+                    emit(IOR);
+                    emit(IASTORE);
+                }
+            }
+            load(REGS);
+            emit(ICONST_0);
+            load(A);
+            emit(IASTORE);
+            load(REGS);
+            pushInt(1);
+            load(D);
+            emit(IASTORE);
+            emit(IRETURN);
+            return code.toByteArray();
+        }
+
+        private void computation(int comp) throws IOException {
+            boolean m = (comp & 0x40) != 0;
+            int control = comp & 0x3F;
+            switch (control) {
+                case 0b101010: pushInt(0); break;
+                case 0b111111: pushInt(1); break;
+                case 0b111010: pushInt(-1); break;
+                case 0b001100: load(D); break;
+                case 0b110000: y(m); break;
+                case 0b001101: load(D); pushInt(-1); emit(IXOR); break;
+                case 0b110001: y(m); pushInt(-1); emit(IXOR); break;
+                case 0b001111: load(D); emit(INEG); emit(I2S); break;
+                case 0b110011: y(m); emit(INEG); emit(I2S); break;
+                case 0b011111: load(D); pushInt(1); emit(IADD); emit(I2S); break;
+                case 0b110111: y(m); pushInt(1); emit(IADD); emit(I2S); break;
+                case 0b001110: load(D); pushInt(1); emit(ISUB); emit(I2S); break;
+                case 0b110010: y(m); pushInt(1); emit(ISUB); emit(I2S); break;
+                case 0b000010: load(D); y(m); emit(IADD); emit(I2S); break;
+                case 0b010011: load(D); y(m); emit(ISUB); emit(I2S); break;
+                case 0b000111: y(m); load(D); emit(ISUB); emit(I2S); break;
+                case 0b000000: load(D); y(m); emit(IAND); break;
+                case 0b010101: load(D); y(m); emit(IOR); break;
+                default:
+                    pushInt(control);
+                    load(D);
+                    y(m);
+                    invokeStatic("com/nand2tetris/HackComputer", "alu", "(III)I");
+                    break;
+            }
+        }
+
+        private void y(boolean m) throws IOException {
+            if (!m) {
+                if (constantA >= 0) {
+                    pushInt(constantA);
+                } else {
+                    load(A);
+                }
+                return;
+            }
+            load(RAM);
+            if (constantA >= 0) {
+                pushInt(Math.min(constantA, HackComputer.KBD));
+            } else {
+                pushAddress();
+                pushInt(HackComputer.KBD);
+                invokeStatic("java/lang/Math", "min", "(II)I");
+            }
+            emit(SALOAD);
+        }
+
+        private void pushAddress() {
+            if (constantA >= 0) {
+                pushInt(constantA);
+            } else {
+                load(A);
+                pushInt(0x7FFF);
+                emit(IAND);
+            }
+        }
+
+        private void storeM() throws IOException {
+            if (constantA >= HackComputer.KBD) {
+                return;
+            }
+            load(RAM);
+            if (constantA >= 0) {
+                pushInt(constantA);
+                load(OUT);
+                emit(SASTORE);
+                constantPages |= 1L << (constantA >>> HackComputer.PAGE_SHIFT);
+            } else {
+                load(REGS);
+                load(A);
+                load(OUT);
+                invokeStatic(THIS_CLASS, "store", "([S[III)V");
+            }
+        }
+
+        private void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                emit(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                emit(BIPUSH);
+                emit(value);
+            } else {
+                emit(SIPUSH);
+                emit(value >> 8);
+                emit(value);
+            }
+        }
+
+        private void pushConstant(int value) throws IOException {
+            Integer index = poolIndexes.get("I" + value);
+            if (index == null) {
+                pool.writeByte(3);
+                pool.writeInt(value);
+                index = poolCount++;
+                poolIndexes.put("I" + value, index);
+            }
+            emit(LDC_W);
+            emit(index >> 8);
+            emit(index);
+        }
+
+        private void load(int local) {
+            emit(local == RAM || local == REGS ? ALOAD : ILOAD);
+            emit(local);
+        }
+
+        private void store(int local) {
+            emit(ISTORE);
+            emit(local);
+        }
+
+        private void invokeStatic(String owner, String name, String type) throws IOException {
+            int method = methodConstant(owner, name, type);
+            emit(INVOKESTATIC);
+            emit(method >> 8);
+            emit(method);
+        }
+
+        private void emit(int b) {
+            code.write(b);
+        }
+
+        private int utf8(String value) throws IOException {
+            Integer index = poolIndexes.get("U" + value);
+            if (index == null) {
+                pool.writeByte(1);
+                pool.writeUTF(value);
+                index = poolCount++;
+                poolIndexes.put("U" + value, index);
+            }
+            return index;
+        }
+
+        private int classConstant(String name) throws IOException {
+            Integer index = poolIndexes.get("C" + name);
+            if (index == null) {
+                int nameIndex = utf8(name);
+                pool.writeByte(7);
+                pool.writeShort(nameIndex);
+                index = poolCount++;
+                poolIndexes.put("C" + name, index);
+            }
+            return index;
+        }
+
+        private int methodConstant(String owner, String name, String type) throws IOException {
+            String key = "M" + owner + "." + name + type;
+            Integer index = poolIndexes.get(key);
+            if (index == null) {
+                int ownerIndex = classConstant(owner);
+                int nameIndex = utf8(name);
+                int typeIndex = utf8(type);
+                pool.writeByte(12);
+                pool.writeShort(nameIndex);
+                pool.writeShort(typeIndex);
+                int nameAndType = poolCount++;
+                pool.writeByte(10);
+                pool.writeShort(ownerIndex);
+                pool.writeShort(nameAndType);
+                index = poolCount++;
+                poolIndexes.put(key, index);
+            }
+            return index;
+        }
+    }
+}
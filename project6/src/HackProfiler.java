@@ -0,0 +1,311 @@
+package com.nand2tetris;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a HackComputer while counting executions and taken jumps per ROM address.
+ * With the SourceMap of the program the counts are aggregated per label and per VM function. VM functions are
+ * the labels CodeWriter writes for "function" commands ("Foo.bar": a dot and no '$'); other labels
+ * ("Foo.bar$LOOP", "EQ_END_3") belong to the function before them.
+ * Calls and returns are followed to build a folded stack file for flame graphs: a taken jump to the start of a
+ * function is a call, a taken jump to a return address label ("Foo.bar$ret.7") is a return.
+ */
+public class HackProfiler {
+
+    private static final String ROOT = "(program)";
+    // Deeper calls are counted in the deepest frame, so runaway recursion cannot blow up the folded stacks
+    private static final int MAX_DEPTH = 512;
+
+    private final HackComputer computer;
+    private final SourceMap sourceMap;
+
+    private final long[] executions = new long[HackComputer.ROM_SIZE];
+    private final long[] takenJumps = new long[HackComputer.ROM_SIZE];
+
+    // Index in functionNames of the function each address belongs to, -1 before the first function
+    private final int[] functionOfAddress = new int[HackComputer.ROM_SIZE];
+    private final List<String> functionNames = new ArrayList<>();
+    // Function starting at each address, -1 if none
+    private final int[] functionStarts = new int[HackComputer.ROM_SIZE];
+    private final boolean[] returnAddresses = new boolean[HackComputer.ROM_SIZE];
+
+    // Call stacks as a tree: node 0 is the root, each node is a function called from its parent node
+    private final Map<Long, Integer> children = new HashMap<>();
+    private int[] parents = new int[64];
+    private int[] nodeFunctions = new int[64];
+    private long[] nodeCycles = new long[64];
+    private int[] depths = new int[64];
+    private int nodeCount = 1;
+    private int currentNode;
+    // Calls past MAX_DEPTH not returned from yet
+    private int hiddenFrames;
+    private long profiledCycles;
+
+    public HackProfiler(HackComputer computer, SourceMap sourceMap) {
+        this.computer = computer;
+        this.sourceMap = sourceMap;
+        nodeFunctions[0] = -1;
+        parents[0] = -1;
+        Arrays.fill(functionOfAddress, -1);
+        Arrays.fill(functionStarts, -1);
+        if (sourceMap != null) {
+            findFunctions();
+        }
+    }
+
+    private void findFunctions() {
+        String[] labels = sourceMap.labelNames();
+        int[] addresses = sourceMap.labelAddresses();
+        for (int i = 0; i < labels.length; i++) {
+            int address = addresses[i] & 0x7FFF;
+            if (isFunctionLabel(labels[i])) {
+                functionStarts[address] = functionNames.size();
+                functionNames.add(labels[i]);
+            } else if (labels[i].contains("$ret.")) {
+                returnAddresses[address] = true;
+            }
+        }
+        int function = -1;
+        for (int address = 0; address < HackComputer.ROM_SIZE; address++) {
+            if (functionStarts[address] >= 0) {
+                function = functionStarts[address];
+            }
+            functionOfAddress[address] = function;
+        }
+    }
+
+    static boolean isFunctionLabel(String label) {
+        return label.indexOf('.') > 0 && label.indexOf('$') < 0;
+    }
+
+    /**
+     * Execute up to maxCycles instructions with the semantics of HackComputer.run, counting as it goes
+     * @return the number of instructions executed
+     */
+    public long run(long maxCycles) {
+        final short[] rom = computer.rom;
+        final short[] ram = computer.ram;
+        final long[] executions = this.executions;
+        int a = computer.a;
+        int d = computer.d;
+        int pc = computer.pc;
+        long executed = 0;
+        long nodeStart = 0;
+        while (executed < maxCycles) {
+            int instruction = rom[pc];
+            executions[pc]++;
+            executed++;
+            if (instruction >= 0) {
+                a = instruction;
+                pc = (pc + 1) & 0x7FFF;
+                continue;
+            }
+            int address = a & 0x7FFF;
+            int y = (instruction & 0x1000) != 0 ? ram[Math.min(address, HackComputer.KBD)] : a;
+            int out = HackComputer.alu(instruction >> 6 & 0x3F, d, y);
+            if ((instruction & 0x08) != 0 && address < HackComputer.KBD) {
+                ram[address] = (short) out;
+                computer.dirtyPages |= 1L << (address >>> HackComputer.PAGE_SHIFT);
+            }
+            if ((instruction & 0x20) != 0) {
+                a = out;
+            }
+            if ((instruction & 0x10) != 0) {
+                d = out;
+            }
+            int condition = out < 0 ? 4 : out == 0 ? 2 : 1;
+            if ((instruction & condition) != 0) {
+                takenJumps[pc]++;
+                if (address == pc - 1 && (instruction & 0x38) == 0 && rom[address] == address) {
+                    computer.halted = true;
+                    pc = address;
+                    break;
+                }
+                if (functionStarts[address] >= 0 || returnAddresses[address]) {
+                    nodeCycles[currentNode] += executed - nodeStart;
+                    nodeStart = executed;
+                    enter(functionStarts[address]);
+                }
+                pc = address;
+            } else {
+                pc = (pc + 1) & 0x7FFF;
+            }
+        }
+        nodeCycles[currentNode] += executed - nodeStart;
+        profiledCycles += executed;
+        computer.a = a;
+        computer.d = d;
+        computer.pc = pc;
+        computer.cycles += executed;
+        return executed;
+    }
+
+    /**
+     * Follow a call to the function, or a return when function is -1
+     */
+    private void enter(int function) {
+        if (function >= 0) {
+            if (depths[currentNode] == MAX_DEPTH) {
+                hiddenFrames++;
+            } else {
+                currentNode = child(currentNode, function);
+            }
+        } else if (hiddenFrames > 0) {
+            hiddenFrames--;
+        } else if (currentNode != 0) {
+            currentNode = parents[currentNode];
+        }
+    }
+
+    private int child(int parent, int function) {
+        long key = (long) parent << 32 | function;
+        Integer node = children.get(key);
+        if (node == null) {
+            if (nodeCount == parents.length) {
+                parents = Arrays.copyOf(parents, nodeCount * 2);
+                nodeFunctions = Arrays.copyOf(nodeFunctions, nodeCount * 2);
+                nodeCycles = Arrays.copyOf(nodeCycles, nodeCount * 2);
+                depths = Arrays.copyOf(depths, nodeCount * 2);
+            }
+            node = nodeCount++;
+            parents[node] = parent;
+            depths[node] = depths[parent] + 1;
+            nodeFunctions[node] = function;
+            children.put(key, node);
+        }
+        return node;
+    }
+
+    public long getExecutions(int address) {
+        return executions[address];
+    }
+
+    public long getTakenJumps(int address) {
+        return takenJumps[address];
+    }
+
+    /**
+     * Cycles per label, instructions before the first label are counted under "(program)"
+     */
+    public Map<String, Long> cyclesByLabel() {
+        Map<String, Long> cycles = new HashMap<>();
+        for (int address = 0; address < HackComputer.ROM_SIZE; address++) {
+            if (executions[address] != 0) {
+                String label = sourceMap != null && address < sourceMap.size() ? sourceMap.enclosingLabel(address) : null;
+                cycles.merge(label == null ? ROOT : label, executions[address], Long::sum);
+            }
+        }
+        return cycles;
+    }
+
+    /**
+     * Cycles per VM function, counting the instructions of the function itself (not of the functions it calls)
+     */
+    public Map<String, Long> cyclesByFunction() {
+        Map<String, Long> cycles = new HashMap<>();
+        for (int address = 0; address < HackComputer.ROM_SIZE; address++) {
+            if (executions[address] != 0) {
+                cycles.merge(functionName(functionOfAddress[address]), executions[address], Long::sum);
+            }
+        }
+        return cycles;
+    }
+
+    /**
+     * Taken jumps per label
+     */
+    public Map<String, Long> takenJumpsByLabel() {
+        Map<String, Long> jumps = new HashMap<>();
+        for (int address = 0; address < HackComputer.ROM_SIZE; address++) {
+            if (takenJumps[address] != 0) {
+                String label = sourceMap != null && address < sourceMap.size() ? sourceMap.enclosingLabel(address) : null;
+                jumps.merge(label == null ? ROOT : label, takenJumps[address], Long::sum);
+            }
+        }
+        return jumps;
+    }
+
+    private String functionName(int function) {
+        return function < 0 ? ROOT : functionNames.get(function);
+    }
+
+    /**
+     * One line per call stack, "(program);Sys.init;Main.main;Math.multiply 12345", the format flamegraph.pl reads
+     */
+    public void writeFoldedStacks(Path path) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path))) {
+            for (int node = 0; node < nodeCount; node++) {
+                if (nodeCycles[node] == 0) {
+                    continue;
+                }
+                StringBuilder stack = new StringBuilder();
+                for (int n = node; n >= 0; n = parents[n]) {
+                    stack.insert(0, n == node ? "" : ";").insert(0, functionName(nodeFunctions[n]));
+                }
+                out.println(stack + " " + nodeCycles[node]);
+            }
+        }
+    }
+
+    public String report(int top) {
+        StringBuilder report = new StringBuilder();
+        long total = profiledCycles;
+        report.append(String.format("Profiled %d cycles%n", total));
+        appendTop(report, "function", cyclesByFunction(), null, top, total);
+        appendTop(report, "label", cyclesByLabel(), takenJumpsByLabel(), top, total);
+        return report.toString();
+    }
+
+    private static void appendTop(StringBuilder report, String kind, Map<String, Long> cycles, Map<String, Long> jumps,
+                                  int top, long total) {
+        report.append(String.format("%nTop %d by %s:%n", top, kind));
+        cycles.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(top)
+                .forEach(entry -> {
+                    report.append(String.format("  %12d  %5.1f%%  %s", entry.getValue(),
+                            100.0 * entry.getValue() / Math.max(total, 1), entry.getKey()));
+                    if (jumps != null) {
+                        report.append(String.format("  (%d jumps taken)", jumps.getOrDefault(entry.getKey(), 0L)));
+                    }
+                    report.append(String.format("%n"));
+                });
+    }
+
+    public static void main(String[] args) throws Exception {
+        String fileName = args.length > 0 ? args[0] : "asm/Pong.asm";
+        long maxCycles = args.length > 1 ? Long.parseLong(args[1]) : 100_000_000L;
+
+        HackComputer computer;
+        SourceMap sourceMap;
+        if (fileName.endsWith(".asm")) {
+            Assembler assembler = new Assembler();
+            SourceMap.Builder builder = new SourceMap.Builder();
+            assembler.setSourceMap(builder);
+            computer = new HackComputer(assembler.assembleMapped(fileName));
+            sourceMap = builder.build();
+        } else {
+            // A .hack file, with the .lst and .sym written by Assembler --listing next to it if there are any
+            computer = HackComputer.load(Path.of(fileName));
+            String base = fileName.substring(0, fileName.length() - ".hack".length());
+            Path listing = Path.of(base + ".lst");
+            Path symbols = Path.of(base + ".sym");
+            sourceMap = Files.exists(listing) && Files.exists(symbols) ? SourceMap.read(listing, symbols) : null;
+        }
+
+        HackProfiler profiler = new HackProfiler(computer, sourceMap);
+        profiler.run(maxCycles);
+        System.out.print(profiler.report(20));
+        Path folded = Path.of(fileName + ".folded");
+        profiler.writeFoldedStacks(folded);
+        System.out.println("Folded stacks written to " + folded);
+    }
+}
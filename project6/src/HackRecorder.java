@@ -0,0 +1,211 @@
+package com.nand2tetris;
+
+import java.nio.file.Path;
+
+/**
+ * Runs a HackComputer while keeping checkpoints of its state, so execution can be rewound.
+ * The computer runs at full speed in between: a checkpoint is a HackSnapshot taken at the start of every call to run
+ * and after every interval instructions within it, sharing the pages not written since the previous checkpoint.
+ * Rewinding restores the latest checkpoint at or before the target and executes forward up to the target again,
+ * which ends in the same state since execution only depends on the ROM, the RAM and the registers.
+ * Keyboard changes and memory poked between calls to run are in the next checkpoint, so rewinding past them puts
+ * the old values back. Only the last capacity checkpoints are kept, the oldest is dropped first.
+ * Running the computer some other way in between drops the recording.
+ */
+public class HackRecorder {
+
+    public static final int DEFAULT_INTERVAL = 1 << 20;
+
+    private final HackComputer computer;
+    private final HackSnapshot[] checkpoints;
+    private final int interval;
+
+    // Index of the next checkpoint, the newest is at next - 1
+    private int next;
+    // Checkpoints still kept, at most the capacity
+    private int count;
+    // Cycle count of the computer after the last instruction run through the recorder, to notice it ran without it
+    private long endCycle = -1;
+
+    /**
+     * @param capacity number of checkpoints kept
+     */
+    public HackRecorder(HackComputer computer, int capacity) {
+        this(computer, capacity, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * @param capacity number of checkpoints kept
+     * @param interval instructions between checkpoints, the most a rewind executes again
+     */
+    public HackRecorder(HackComputer computer, int capacity, int interval) {
+        if (capacity <= 0 || interval <= 0) {
+            throw new IllegalArgumentException("Capacity and interval must be positive");
+        }
+        this.computer = computer;
+        this.checkpoints = new HackSnapshot[capacity];
+        this.interval = interval;
+    }
+
+    /**
+     * Execute up to maxCycles instructions with the semantics of HackComputer.run, recording as it goes
+     * @return the number of instructions executed
+     */
+    public long run(long maxCycles) {
+        if (computer.cycles != endCycle) {
+            count = 0;
+        }
+        long executed = 0;
+        boolean first = true;
+        while (executed < maxCycles) {
+            long sinceCheckpoint = count == 0 ? interval : computer.cycles - newest().cycles;
+            if (first || sinceCheckpoint >= interval) {
+                checkpoint();
+                sinceCheckpoint = 0;
+                first = false;
+            }
+            long cycles = Math.min(maxCycles - executed, interval - sinceCheckpoint);
+            long ran = computer.run(cycles);
+            executed += ran;
+            if (ran < cycles) {
+                // Halted
+                break;
+            }
+        }
+        endCycle = computer.cycles;
+        return executed;
+    }
+
+    private void checkpoint() {
+        HackSnapshot snapshot = computer.snapshot();
+        if (count > 0 && newest().cycles == snapshot.cycles) {
+            // Nothing ran since, but the keyboard or memory may have been changed from outside
+            checkpoints[index(next - 1)] = snapshot;
+            return;
+        }
+        checkpoints[next] = snapshot;
+        next = index(next + 1);
+        count = Math.min(count + 1, checkpoints.length);
+    }
+
+    private HackSnapshot newest() {
+        return checkpoints[index(next - 1)];
+    }
+
+    private int index(int i) {
+        return Math.floorMod(i, checkpoints.length);
+    }
+
+    /**
+     * Undo the last instructions executed, at most back to firstCycle()
+     * @return the number of instructions undone
+     */
+    public long rewind(long cycles) {
+        if (computer.cycles != endCycle || count == 0 || cycles <= 0) {
+            return 0;
+        }
+        long start = computer.cycles;
+        long target = Math.max(start - cycles, firstCycle());
+        // Execution after the target may go differently from now on, so later checkpoints are dropped
+        while (newest().cycles > target) {
+            checkpoints[index(next - 1)] = null;
+            next = index(next - 1);
+            count--;
+        }
+        computer.restore(newest());
+        // A halted computer stops each run early, so replay the same way it was run
+        while (computer.cycles < target) {
+            computer.run(target - computer.cycles);
+        }
+        endCycle = computer.cycles;
+        return start - computer.cycles;
+    }
+
+    /**
+     * Rewind to the state before the instruction executed at the given cycle count
+     * @return the number of instructions undone
+     */
+    public long rewindTo(long cycle) {
+        return rewind(Math.max(computer.cycles - cycle, 0));
+    }
+
+    /**
+     * Cycle count of the computer at the start of the recording, the furthest it can be rewound to
+     */
+    public long firstCycle() {
+        if (computer.cycles != endCycle || count == 0) {
+            return computer.cycles;
+        }
+        return checkpoints[index(next - count)].cycles;
+    }
+
+    /**
+     * Cycle count before the latest recorded instruction that wrote the RAM address, -1 if none is recorded.
+     * Rewinding to it shows the state just before the write.
+     * Executes the recording again from the checkpoints, newest first, up to the one with the write.
+     */
+    public long lastWrite(int address) {
+        address &= 0x7FFF;
+        if (computer.cycles != endCycle || count == 0) {
+            return -1;
+        }
+        HackSnapshot now = computer.snapshot();
+        long found = -1;
+        long end = now.cycles;
+        for (int i = 1; i <= count && found < 0; i++) {
+            HackSnapshot checkpoint = checkpoints[index(next - i)];
+            computer.restore(checkpoint);
+            while (computer.cycles < end) {
+                int instruction = computer.rom[computer.pc];
+                if (instruction < 0 && (instruction & 0x08) != 0 && (computer.a & 0x7FFF) == address) {
+                    found = computer.cycles;
+                }
+                computer.run(1);
+            }
+            end = checkpoint.cycles;
+        }
+        computer.restore(now);
+        return found;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String fileName = args.length > 0 ? args[0] : "asm/Pong.asm";
+        long maxCycles = args.length > 1 ? Long.parseLong(args[1]) : 10_000_000L;
+        int watch = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        int capacity = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+
+        HackComputer computer;
+        SourceMap sourceMap = null;
+        if (fileName.endsWith(".asm")) {
+            Assembler assembler = new Assembler();
+            SourceMap.Builder builder = new SourceMap.Builder();
+            assembler.setSourceMap(builder);
+            computer = new HackComputer(assembler.assembleMapped(fileName));
+            sourceMap = builder.build();
+        } else {
+            computer = HackComputer.load(Path.of(fileName));
+        }
+
+        HackRecorder recorder = new HackRecorder(computer, capacity);
+        long start = System.nanoTime();
+        recorder.run(maxCycles);
+        long nanos = System.nanoTime() - start;
+        System.out.println("Recorded " + computer.getCycles() + " instructions in " + nanos / 1_000_000 + " ms ("
+                + computer.getCycles() * 1000 / Math.max(nanos, 1) + " MIPS), can rewind to cycle "
+                + recorder.firstCycle());
+
+        // Walk back through the last writes to the watched address, e.g. 0 for the stack pointer
+        for (int i = 0; i < 10; i++) {
+            long cycle = recorder.lastWrite(watch);
+            if (cycle < 0) {
+                break;
+            }
+            int after = computer.peek(watch);
+            recorder.rewindTo(cycle);
+            String label = sourceMap != null && computer.getPc() < sourceMap.size()
+                    ? sourceMap.enclosingLabel(computer.getPc()) : null;
+            System.out.println(String.format("cycle %d: ROM[%d]%s wrote RAM[%d] = %d over %d", cycle,
+                    computer.getPc(), label != null ? " (" + label + ")" : "", watch, after, computer.peek(watch)));
+        }
+    }
+}
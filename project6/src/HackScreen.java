@@ -0,0 +1,136 @@
+package com.nand2tetris;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+
+/**
+ * Headless framebuffer of the Hack screen, the 8K words from SCREEN: 256 rows of 32 words, the least significant
+ * bit of a word is its leftmost pixel and 1 is black.
+ * Only rows that changed are rendered. The computer marks the 512 word pages it writes, so a frame only looks at
+ * the screen pages written since the last frame, and compares their rows with a copy of the last rendered screen
+ * to find the rows that really changed. Those rows are rendered into a 1 bit per pixel BufferedImage.
+ */
+public class HackScreen {
+
+    public static final int WIDTH = 512;
+    public static final int HEIGHT = 256;
+    public static final int WORDS_PER_ROW = WIDTH / 16;
+    private static final int ROWS_PER_PAGE = HackComputer.PAGE_SIZE / WORDS_PER_ROW;
+
+    // Bytes of a packed image row have the leftmost pixel in the most significant bit, Hack words in the least
+    private static final byte[] REVERSED_BITS = new byte[256];
+
+    static {
+        for (int value = 0; value < 256; value++) {
+            REVERSED_BITS[value] = (byte) (Integer.reverse(value) >>> 24);
+        }
+    }
+
+    private final HackComputer computer;
+    private final int dirtyTracker;
+    private final BufferedImage image;
+    private final byte[] pixels;
+    private final short[] rendered = new short[HEIGHT * WORDS_PER_ROW];
+    // Rows changed by the last frame, one bit per row
+    private final long[] dirtyRows = new long[HEIGHT / 64];
+
+    public HackScreen(HackComputer computer) {
+        this.computer = computer;
+        IndexColorModel palette = new IndexColorModel(1, 2, new byte[] {-1, 0}, new byte[] {-1, 0}, new byte[] {-1, 0});
+        this.image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_BINARY, palette);
+        this.pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        // All pages count as written before the first frame, so it renders every row that is not blank
+        this.dirtyTracker = computer.addDirtyTracker();
+    }
+
+    /**
+     * Bring the image up to date with the screen memory map
+     * @return the number of rows rendered
+     */
+    public int renderFrame() {
+        Arrays.fill(dirtyRows, 0);
+        long pages = computer.takeDirtyPages(dirtyTracker) & HackComputer.SCREEN_PAGES;
+        short[] ram = computer.ram;
+        int renderedRows = 0;
+        while (pages != 0) {
+            int page = Long.numberOfTrailingZeros(pages);
+            pages &= pages - 1;
+            int firstRow = (page - (HackComputer.SCREEN >> HackComputer.PAGE_SHIFT)) * ROWS_PER_PAGE;
+            for (int row = firstRow; row < firstRow + ROWS_PER_PAGE; row++) {
+                int from = row * WORDS_PER_ROW;
+                int to = from + WORDS_PER_ROW;
+                if (Arrays.mismatch(ram, HackComputer.SCREEN + from, HackComputer.SCREEN + to, rendered, from, to) < 0) {
+                    continue;
+                }
+                System.arraycopy(ram, HackComputer.SCREEN + from, rendered, from, WORDS_PER_ROW);
+                renderRow(row);
+                dirtyRows[row >> 6] |= 1L << row;
+                renderedRows++;
+            }
+        }
+        return renderedRows;
+    }
+
+    private void renderRow(int row) {
+        int pixel = row * WORDS_PER_ROW * 2;
+        for (int i = row * WORDS_PER_ROW; i < (row + 1) * WORDS_PER_ROW; i++) {
+            pixels[pixel++] = REVERSED_BITS[rendered[i] & 0xFF];
+            pixels[pixel++] = REVERSED_BITS[(rendered[i] >> 8) & 0xFF];
+        }
+    }
+
+    /**
+     * Whether the row changed in the last frame
+     */
+    public boolean isRowDirty(int row) {
+        return (dirtyRows[row >> 6] & 1L << row) != 0;
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * Render the current frame and write it as a PNG
+     */
+    public void capture(Path path) throws IOException {
+        renderFrame();
+        ImageIO.write(image, "png", path.toFile());
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        String fileName = args.length > 0 ? args[0] : "asm/Pong.asm";
+        long maxCycles = args.length > 1 ? Long.parseLong(args[1]) : 100_000_000L;
+        long frameCycles = args.length > 2 ? Long.parseLong(args[2]) : 1_000_000L;
+        Path frames = Path.of(args.length > 3 ? args[3] : "frames");
+
+        HackComputer computer;
+        if (fileName.endsWith(".asm")) {
+            computer = new HackComputer(new Assembler().assembleMapped(fileName));
+        } else {
+            computer = HackComputer.load(Path.of(fileName));
+        }
+        HackJit jit = new HackJit(computer);
+        HackScreen screen = new HackScreen(computer);
+        Files.createDirectories(frames);
+
+        int frame = 0;
+        long start = System.nanoTime();
+        while (computer.getCycles() < maxCycles && !computer.isHalted()) {
+            jit.run(Math.min(frameCycles, maxCycles - computer.getCycles()));
+            int rows = screen.renderFrame();
+            Path png = frames.resolve(String.format("frame_%05d.png", frame++));
+            ImageIO.write(screen.getImage(), "png", png.toFile());
+            System.out.println(png + ": " + rows + " rows changed");
+        }
+        System.out.println("Ran " + computer.getCycles() + " cycles, " + frame + " frames in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+}
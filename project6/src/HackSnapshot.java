@@ -0,0 +1,50 @@
+package com.nand2tetris;
+
+/**
+ * Immutable state of a HackComputer: RAM as pages of PAGE_SIZE words, registers and cycle count.
+ * Pages are never written after the snapshot is taken, so snapshots of the same computer share unchanged pages.
+ */
+public final class HackSnapshot {
+
+    final short[][] pages;
+    final int a;
+    final int d;
+    final int pc;
+    final long cycles;
+    final boolean halted;
+
+    HackSnapshot(short[][] pages, int a, int d, int pc, long cycles, boolean halted) {
+        this.pages = pages;
+        this.a = a;
+        this.d = d;
+        this.pc = pc;
+        this.cycles = cycles;
+        this.halted = halted;
+    }
+
+    public int peek(int address) {
+        address = Math.min(address & 0x7FFF, HackComputer.KBD);
+        return pages[address >>> HackComputer.PAGE_SHIFT][address & (HackComputer.PAGE_SIZE - 1)];
+    }
+
+    public int getPc() {
+        return pc;
+    }
+
+    public long getCycles() {
+        return cycles;
+    }
+
+    /**
+     * Number of pages this snapshot shares with the other one
+     */
+    public int sharedPages(HackSnapshot other) {
+        int shared = 0;
+        for (int page = 0; page < pages.length; page++) {
+            if (pages[page] == other.pages[page]) {
+                shared++;
+            }
+        }
+        return shared;
+    }
+}
@@ -0,0 +1,208 @@
+package com.nand2tetris;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs a suite of assembled Hack programs concurrently, each test on its own HackComputer.
+ * The suite is a manifest with one test per line, paths relative to the manifest:
+ *
+ *     Mult.asm 10000 RAM[0]=3 RAM[1]=5 => RAM[2]=15
+ *     Fill.hack 200000 KBD=65 => RAM[16384]=-1 RAM[24575]=-1
+ *
+ * that is the program (.asm or .hack), the cycle budget, the RAM set before running and the RAM expected after.
+ * A test stops at its budget or when the program halts in its final loop. Lines starting with # are comments.
+ * Each program is loaded and decoded into micro-ops once, the tests of a program share its ROM and micro-ops and
+ * only have their own RAM and registers. Tests run on a fixed pool with one thread per core.
+ */
+public class HackTestFarm {
+
+    private static final Pattern ASSIGNMENT = Pattern.compile("(?:RAM\\[(\\d+)\\]|(KBD))=(-?\\d+)");
+
+    public static class TestCase {
+        final String name;
+        final Path program;
+        final long cycles;
+        final int[] setAddresses;
+        final int[] setValues;
+        final int[] expectedAddresses;
+        final int[] expectedValues;
+
+        TestCase(String name, Path program, long cycles, int[] setAddresses, int[] setValues,
+                 int[] expectedAddresses, int[] expectedValues) {
+            this.name = name;
+            this.program = program;
+            this.cycles = cycles;
+            this.setAddresses = setAddresses;
+            this.setValues = setValues;
+            this.expectedAddresses = expectedAddresses;
+            this.expectedValues = expectedValues;
+        }
+    }
+
+    public static class Result {
+        final TestCase test;
+        final String failure;
+        final long cycles;
+
+        Result(TestCase test, String failure, long cycles) {
+            this.test = test;
+            this.failure = failure;
+            this.cycles = cycles;
+        }
+
+        public boolean passed() {
+            return failure == null;
+        }
+
+        @Override
+        public String toString() {
+            return (passed() ? "PASS " : "FAIL ") + test.name + " (" + cycles + " cycles)"
+                    + (passed() ? "" : ": " + failure);
+        }
+    }
+
+    private final int threads;
+
+    public HackTestFarm(int threads) {
+        this.threads = threads;
+    }
+
+    public static List<TestCase> readManifest(Path manifest) throws Exception {
+        List<TestCase> tests = new ArrayList<>();
+        Path directory = manifest.toAbsolutePath().getParent();
+        List<String> lines = Files.readAllLines(manifest);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String name = manifest.getFileName() + ":" + (i + 1);
+            String[] sides = line.split("=>", -1);
+            String[] setup = sides[0].strip().split("\\s+");
+            if (sides.length != 2 || setup.length < 2) {
+                throw new IllegalArgumentException(name + ": expected <program> <cycles> [sets] => <expectations>");
+            }
+            List<int[]> sets = new ArrayList<>();
+            for (int j = 2; j < setup.length; j++) {
+                sets.add(parseAssignment(name, setup[j]));
+            }
+            List<int[]> expectations = new ArrayList<>();
+            for (String expectation : sides[1].strip().split("\\s+")) {
+                if (!expectation.isEmpty()) {
+                    expectations.add(parseAssignment(name, expectation));
+                }
+            }
+            tests.add(new TestCase(name, directory.resolve(setup[0]), Long.parseLong(setup[1]),
+                    column(sets, 0), column(sets, 1), column(expectations, 0), column(expectations, 1)));
+        }
+        return tests;
+    }
+
+    private static int[] parseAssignment(String name, String text) {
+        Matcher matcher = ASSIGNMENT.matcher(text);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException(name + ": cannot parse " + text);
+        }
+        int address = matcher.group(2) != null ? HackComputer.KBD : Integer.parseInt(matcher.group(1));
+        return new int[] {address, Integer.parseInt(matcher.group(3))};
+    }
+
+    private static int[] column(List<int[]> pairs, int index) {
+        int[] values = new int[pairs.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = pairs.get(i)[index];
+        }
+        return values;
+    }
+
+    public List<Result> run(List<TestCase> tests) throws Exception {
+        // Load and decode each program once, before the tests start
+        Map<Path, MicroOpEngine> programs = new HashMap<>();
+        for (TestCase test : tests) {
+            if (!programs.containsKey(test.program)) {
+                programs.put(test.program, new MicroOpEngine(load(test.program)));
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Result>> jobs = new ArrayList<>();
+            for (TestCase test : tests) {
+                MicroOpEngine program = programs.get(test.program);
+                jobs.add(() -> runTest(test, program));
+            }
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> result : executor.invokeAll(jobs)) {
+                results.add(result.get());
+            }
+            return results;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static HackComputer load(Path program) throws Exception {
+        if (program.toString().endsWith(".asm")) {
+            return new HackComputer(new Assembler().assembleMapped(program.toString()));
+        }
+        return HackComputer.load(program);
+    }
+
+    private static Result runTest(TestCase test, MicroOpEngine program) {
+        HackComputer computer = new HackComputer(program.getComputer());
+        for (int i = 0; i < test.setAddresses.length; i++) {
+            if (test.setAddresses[i] == HackComputer.KBD) {
+                computer.setKeyboard(test.setValues[i]);
+            } else {
+                computer.poke(test.setAddresses[i], test.setValues[i]);
+            }
+        }
+        new MicroOpEngine(program, computer).run(test.cycles);
+        List<String> mismatches = new ArrayList<>();
+        for (int i = 0; i < test.expectedAddresses.length; i++) {
+            int actual = computer.peek(test.expectedAddresses[i]);
+            if (actual != (short) test.expectedValues[i]) {
+                mismatches.add(String.format("RAM[%d] is %d, expected %d",
+                        test.expectedAddresses[i], actual, test.expectedValues[i]));
+            }
+        }
+        return new Result(test, mismatches.isEmpty() ? null : String.join("; ", mismatches), computer.getCycles());
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path manifest = Path.of(args.length > 0 ? args[0] : "tests.manifest");
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        List<TestCase> tests = readManifest(manifest);
+        long start = System.nanoTime();
+        List<Result> results = new HackTestFarm(threads).run(tests);
+        long nanos = System.nanoTime() - start;
+
+        int failed = 0;
+        long cycles = 0;
+        for (Result result : results) {
+            cycles += result.cycles;
+            if (!result.passed()) {
+                failed++;
+                System.out.println(result);
+            }
+        }
+        System.out.println(String.format("%d tests, %d passed, %d failed, %d cycles in %d ms on %d threads (%d MIPS)",
+                results.size(), results.size() - failed, failed, cycles, nanos / 1_000_000, threads,
+                cycles * 1000 / Math.max(nanos, 1)));
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+}
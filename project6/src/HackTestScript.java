@@ -0,0 +1,552 @@
+package com.nand2tetris;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs a CPU emulator test script (.tst) of the course on a HackComputer, comparing every output line with the
+ * compare file (.cmp) as it is written and stopping at the first mismatch:
+ *
+ *     load Mult.asm, output-file Mult.out, compare-to Mult.cmp, output-list RAM[0]%D2.6.2 RAM[2]%D2.6.2;
+ *     set RAM[0] 3, set RAM[1] 5, set RAM[2] -1;
+ *     repeat 200 { ticktock; }
+ *     output;
+ *
+ * Supported are load (.asm is assembled, .hack is read), output-file, compare-to, output-list, set, repeat,
+ * while, ticktock, output and echo. The variables are A, D, PC, time, RAM[n] and ROM[n], set values may be
+ * written %D, %X or %B. A '*' in the compare file matches any character.
+ * Scripts for the hardware simulator or the VM emulator (loading .hdl or .vm, vmstep) are not supported.
+ */
+public class HackTestScript {
+
+    private static final Pattern COLUMN = Pattern.compile("([^%]+)(?:%([BDSX])(\\d+)\\.(\\d+)\\.(\\d+))?");
+    private static final Pattern MEMORY = Pattern.compile("(RAM|ROM)\\[(\\d+)\\]");
+
+    interface Statement {
+        /**
+         * @return false to stop the script, at the first mismatch with the compare file
+         */
+        boolean execute() throws IOException;
+    }
+
+    /**
+     * Thrown for scripts of the hardware simulator or the VM emulator, which are skipped rather than failed
+     */
+    static class SkippedScriptException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        SkippedScriptException(String message) {
+            super(message);
+        }
+    }
+
+    private static class Column {
+        final String name;
+        final char format;
+        final int left;
+        final int width;
+        final int right;
+
+        Column(String name, char format, int left, int width, int right) {
+            this.name = name;
+            this.format = format;
+            this.left = left;
+            this.width = width;
+            this.right = right;
+        }
+    }
+
+    private final Path script;
+    private final Path directory;
+    private final String text;
+    private int position;
+    private int lineNumber = 1;
+
+    private HackComputer computer;
+    private long time;
+    private List<Column> outputList = new ArrayList<>();
+    private PrintWriter outputFile;
+    private List<String> compareLines;
+    private int outputLines;
+    private String failure;
+
+    public HackTestScript(Path script) throws IOException {
+        this.script = script;
+        this.directory = script.toAbsolutePath().getParent();
+        this.text = Files.readString(script);
+    }
+
+    /**
+     * Run the script
+     * @return null if every output line matched the compare file, otherwise the first mismatch
+     * @throws SkippedScriptException for a script of the hardware simulator or the VM emulator
+     */
+    public String run() throws IOException {
+        List<Statement> statements = parseStatements(false);
+        try {
+            execute(statements);
+        } finally {
+            if (outputFile != null) {
+                outputFile.close();
+            }
+        }
+        return failure;
+    }
+
+    private static boolean execute(List<Statement> statements) throws IOException {
+        for (Statement statement : statements) {
+            if (!statement.execute()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Parsing
+
+    private List<Statement> parseStatements(boolean block) {
+        List<Statement> statements = new ArrayList<>();
+        while (true) {
+            String word = nextToken();
+            if (word == null) {
+                if (block) {
+                    throw error("Missing }");
+                }
+                return statements;
+            }
+            if (word.equals("}")) {
+                if (!block) {
+                    throw error("Unexpected }");
+                }
+                return statements;
+            }
+            if (word.equals("repeat")) {
+                statements.add(parseRepeat());
+            } else if (word.equals("while")) {
+                statements.add(parseWhile());
+            } else {
+                List<String> arguments = new ArrayList<>();
+                String token = nextToken();
+                while (token != null && !token.equals(",") && !token.equals(";") && !token.equals("!")) {
+                    if (token.equals("}")) {
+                        // The last command of a block needs no terminator
+                        position--;
+                        break;
+                    }
+                    arguments.add(token);
+                    token = nextToken();
+                }
+                statements.add(parseCommand(word, arguments));
+            }
+        }
+    }
+
+    private Statement parseRepeat() {
+        String token = nextToken();
+        if (token == null || !token.matches("\\d+")) {
+            throw error("repeat needs a count");
+        }
+        long count = Long.parseLong(token);
+        expect("{");
+        List<Statement> body = parseStatements(true);
+        if (body.size() == 1 && body.get(0) instanceof Tick) {
+            // The common "repeat n { ticktock; }" runs the computer n cycles in one go
+            return () -> {
+                tick(count);
+                return true;
+            };
+        }
+        return () -> {
+            for (long i = 0; i < count; i++) {
+                if (!execute(body)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    private Statement parseWhile() {
+        String variable = nextToken();
+        String operator = nextToken();
+        int value = parseValue(nextToken());
+        expect("{");
+        List<Statement> body = parseStatements(true);
+        return () -> {
+            while (compare(get(variable), operator, value)) {
+                if (!execute(body)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    private boolean compare(int x, String operator, int y) {
+        switch (operator) {
+            case "<": return x < y;
+            case "<=": return x <= y;
+            case "=": return x == y;
+            case ">=": return x >= y;
+            case ">": return x > y;
+            case "<>": return x != y;
+            default: throw error("Unknown operator " + operator);
+        }
+    }
+
+    private class Tick implements Statement {
+        @Override
+        public boolean execute() {
+            tick(1);
+            return true;
+        }
+    }
+
+    private Statement parseCommand(String command, List<String> arguments) {
+        switch (command) {
+            case "load": {
+                Path program = directory.resolve(argument(command, arguments));
+                String name = program.toString();
+                if (!name.endsWith(".asm") && !name.endsWith(".hack")) {
+                    throw new SkippedScriptException("Only .asm and .hack programs can be loaded, not " + name);
+                }
+                return () -> {
+                    computer = new HackComputer(name.endsWith(".asm")
+                            ? new Assembler().assembleMapped(name).toArray() : HackComputer.readHack(program));
+                    time = 0;
+                    return true;
+                };
+            }
+            case "output-file": {
+                Path path = directory.resolve(argument(command, arguments));
+                return () -> {
+                    outputFile = new PrintWriter(Files.newBufferedWriter(path));
+                    return true;
+                };
+            }
+            case "compare-to": {
+                Path path = directory.resolve(argument(command, arguments));
+                return () -> {
+                    compareLines = Files.readAllLines(path);
+                    return true;
+                };
+            }
+            case "output-list": {
+                List<Column> columns = new ArrayList<>();
+                for (String argument : arguments) {
+                    columns.add(parseColumn(argument));
+                }
+                return () -> {
+                    outputList = columns;
+                    return output(header());
+                };
+            }
+            case "set": {
+                if (arguments.size() != 2) {
+                    throw error("set needs a variable and a value");
+                }
+                String variable = arguments.get(0);
+                int value = parseValue(arguments.get(1));
+                return () -> {
+                    set(variable, value);
+                    return true;
+                };
+            }
+            case "ticktock":
+                return new Tick();
+            case "output":
+                return () -> output(values());
+            case "echo":
+                return () -> {
+                    System.out.println(String.join(" ", arguments));
+                    return true;
+                };
+            case "clear-echo":
+                return () -> true;
+            case "vmstep":
+                throw new SkippedScriptException("vmstep is a VM emulator command");
+            default:
+                throw error("Unsupported command " + command);
+        }
+    }
+
+    private String argument(String command, List<String> arguments) {
+        if (arguments.size() != 1) {
+            throw error(command + " needs one argument");
+        }
+        return arguments.get(0);
+    }
+
+    private Column parseColumn(String text) {
+        Matcher matcher = COLUMN.matcher(text);
+        if (!matcher.matches()) {
+            throw error("Cannot parse output column " + text);
+        }
+        if (matcher.group(2) == null) {
+            return new Column(matcher.group(1), 'D', 1, 6, 1);
+        }
+        return new Column(matcher.group(1), matcher.group(2).charAt(0), Integer.parseInt(matcher.group(3)),
+                Integer.parseInt(matcher.group(4)), Integer.parseInt(matcher.group(5)));
+    }
+
+    private int parseValue(String text) {
+        if (text == null) {
+            throw error("Missing value");
+        }
+        try {
+            if (text.startsWith("%X")) {
+                return (short) Integer.parseInt(text.substring(2), 16);
+            } else if (text.startsWith("%B")) {
+                return (short) Integer.parseInt(text.substring(2), 2);
+            } else if (text.startsWith("%D")) {
+                return Integer.parseInt(text.substring(2));
+            }
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw error("Cannot parse value " + text);
+        }
+    }
+
+    private void expect(String expected) {
+        String token = nextToken();
+        if (!expected.equals(token)) {
+            throw error("Expected " + expected + " but found " + token);
+        }
+    }
+
+    /**
+     * Next word, quoted string (without the quotes) or one of , ; ! { }, null at the end of the script
+     */
+    private String nextToken() {
+        while (position < text.length()) {
+            char c = text.charAt(position);
+            if (c == '\n') {
+                lineNumber++;
+                position++;
+            } else if (Character.isWhitespace(c)) {
+                position++;
+            } else if (text.startsWith("//", position)) {
+                while (position < text.length() && text.charAt(position) != '\n') {
+                    position++;
+                }
+            } else if (text.startsWith("/*", position)) {
+                int end = text.indexOf("*/", position + 2);
+                end = end < 0 ? text.length() : end + 2;
+                lineNumber += (int) text.substring(position, end).chars().filter(ch -> ch == '\n').count();
+                position = end;
+            } else {
+                break;
+            }
+        }
+        if (position == text.length()) {
+            return null;
+        }
+        char c = text.charAt(position);
+        if (",;!{}".indexOf(c) >= 0) {
+            position++;
+            return String.valueOf(c);
+        }
+        if (c == '"') {
+            int end = text.indexOf('"', position + 1);
+            if (end < 0) {
+                throw error("Unterminated string");
+            }
+            String string = text.substring(position + 1, end);
+            position = end + 1;
+            return string;
+        }
+        int start = position;
+        while (position < text.length() && !Character.isWhitespace(text.charAt(position))
+                && ",;!{}".indexOf(text.charAt(position)) < 0) {
+            position++;
+        }
+        return text.substring(start, position);
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(script.getFileName() + ":" + lineNumber + ": " + message);
+    }
+
+    // Execution
+
+    /**
+     * Run the computer n clock cycles. A halted program keeps spinning in its final loop, "@END" and "0;JMP".
+     */
+    private void tick(long n) {
+        requireProgram();
+        long remaining = n;
+        while (remaining > 0) {
+            remaining -= computer.run(remaining);
+            if (computer.isHalted()) {
+                // Nothing changes any more but the PC going round the loop, at the @END when an even number is left
+                computer.run(remaining & 1);
+                remaining = 0;
+            }
+        }
+        time += n;
+    }
+
+    private void requireProgram() {
+        if (computer == null) {
+            throw new IllegalStateException(script.getFileName() + ": no program loaded");
+        }
+    }
+
+    private int get(String variable) {
+        requireProgram();
+        switch (variable) {
+            case "A": return computer.getA();
+            case "D": return computer.getD();
+            case "PC": return computer.getPc();
+            case "time": return (int) time;
+            default:
+                Matcher matcher = MEMORY.matcher(variable);
+                if (!matcher.matches()) {
+                    throw new IllegalArgumentException(script.getFileName() + ": unknown variable " + variable);
+                }
+                int address = Integer.parseInt(matcher.group(2));
+                return matcher.group(1).equals("RAM") ? computer.peek(address) : computer.rom[address & 0x7FFF];
+        }
+    }
+
+    private void set(String variable, int value) {
+        requireProgram();
+        switch (variable) {
+            case "A": computer.setA(value); break;
+            case "D": computer.setD(value); break;
+            case "PC": computer.setPc(value); break;
+            default:
+                Matcher matcher = MEMORY.matcher(variable);
+                if (!matcher.matches() || !matcher.group(1).equals("RAM")) {
+                    throw new IllegalArgumentException(script.getFileName() + ": cannot set " + variable);
+                }
+                int address = Integer.parseInt(matcher.group(2));
+                if (address == HackComputer.KBD) {
+                    computer.setKeyboard(value);
+                } else {
+                    computer.poke(address, value);
+                }
+        }
+    }
+
+    private String header() {
+        StringBuilder line = new StringBuilder("|");
+        for (Column column : outputList) {
+            int size = column.left + column.width + column.right;
+            String name = column.name.length() > size ? column.name.substring(0, size) : column.name;
+            int left = (size - name.length()) / 2;
+            line.append(" ".repeat(left)).append(name).append(" ".repeat(size - left - name.length())).append('|');
+        }
+        return line.toString();
+    }
+
+    private String values() {
+        StringBuilder line = new StringBuilder("|");
+        for (Column column : outputList) {
+            int value = get(column.name);
+            String text;
+            if (column.format == 'X') {
+                text = String.format("%04X", value & 0xFFFF);
+            } else if (column.format == 'B') {
+                text = String.format("%16s", Integer.toBinaryString(value & 0xFFFF)).replace(' ', '0');
+            } else {
+                text = Integer.toString(value);
+            }
+            if (text.length() > column.width && column.format != 'D' && column.format != 'S') {
+                text = text.substring(text.length() - column.width);
+            }
+            line.append(" ".repeat(column.left)).append(" ".repeat(Math.max(column.width - text.length(), 0)))
+                    .append(text).append(" ".repeat(column.right)).append('|');
+        }
+        return line.toString();
+    }
+
+    /**
+     * Write a line of output and compare it with the same line of the compare file
+     * @return false on a mismatch
+     */
+    private boolean output(String line) {
+        if (outputFile != null) {
+            outputFile.println(line);
+        }
+        int index = outputLines++;
+        if (compareLines == null) {
+            return true;
+        }
+        String expected = index < compareLines.size() ? compareLines.get(index) : null;
+        if (expected == null || !matches(expected, line)) {
+            failure = "Comparison failure at line " + (index + 1) + ": expected " + expected + " but was " + line;
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean matches(String expected, String actual) {
+        if (expected.length() != actual.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (expected.charAt(i) != actual.charAt(i) && expected.charAt(i) != '*') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Path> scripts = new ArrayList<>();
+        for (String arg : args.length > 0 ? args : new String[] {"."}) {
+            Path path = Path.of(arg);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.walk(path)) {
+                    scripts.addAll(files.filter(file -> file.toString().endsWith(".tst")).sorted()
+                            .collect(Collectors.toList()));
+                }
+            } else {
+                scripts.add(path);
+            }
+        }
+
+        int passed = 0;
+        int failed = 0;
+        int skipped = 0;
+        long start = System.nanoTime();
+        for (Path path : scripts) {
+            HackTestScript script = new HackTestScript(path);
+            String result;
+            try {
+                result = script.run();
+            } catch (SkippedScriptException e) {
+                skipped++;
+                System.out.println("SKIP " + path + ": " + e.getMessage());
+                continue;
+            } catch (IllegalArgumentException | IllegalStateException | IOException e) {
+                result = e.getMessage();
+            }
+            if (result == null) {
+                passed++;
+                System.out.println("PASS " + path + " (" + script.getTime() + " cycles)");
+            } else {
+                failed++;
+                System.out.println("FAIL " + path + ": " + result);
+            }
+        }
+        System.out.println(String.format("%d scripts, %d passed, %d failed, %d skipped in %d ms", scripts.size(),
+                passed, failed, skipped, (System.nanoTime() - start) / 1_000_000));
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+}
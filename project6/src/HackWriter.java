@@ -0,0 +1,74 @@
+package com.nand2tetris;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes encoded instructions as .hack text. The instruction count is known, so the output is exactly
+ * LINE_LENGTH bytes per instruction: it is rendered into one pre-sized buffer (or directly into a memory mapped
+ * file) and written at once. Existing files are truncated.
+ */
+public class HackWriter {
+
+    // Each line of a .hack file is 16 bits followed by a newline
+    public static final int LINE_LENGTH = 17;
+
+    // ASCII '0'/'1' rendering of every byte value, 8 characters packed big endian into a long
+    private static final long[] BYTE_TO_ASCII = new long[256];
+
+    static {
+        for (int value = 0; value < 256; value++) {
+            long ascii = 0;
+            for (int bit = 7; bit >= 0; bit--) {
+                ascii = ascii << 8 | (((value >>> bit) & 1) == 1 ? '1' : '0');
+            }
+            BYTE_TO_ASCII[value] = ascii;
+        }
+    }
+
+    public static void putLine(ByteBuffer buffer, short word) {
+        buffer.putLong(BYTE_TO_ASCII[(word >>> 8) & 0xFF]);
+        buffer.putLong(BYTE_TO_ASCII[word & 0xFF]);
+        buffer.put((byte) '\n');
+    }
+
+    /**
+     * Render all instructions into a direct buffer of exactly the output size, ready to be written
+     */
+    public static ByteBuffer render(InstructionBuffer instructions) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(instructions.size() * LINE_LENGTH);
+        for (int i = 0; i < instructions.size(); i++) {
+            putLine(buffer, instructions.get(i));
+        }
+        return buffer.flip();
+    }
+
+    public static void write(InstructionBuffer instructions, Path path) throws IOException {
+        ByteBuffer buffer = render(instructions);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Render straight into a memory mapped output file of exactly the output size, and force it to storage
+     */
+    public static void writeMapped(InstructionBuffer instructions, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    (long) instructions.size() * LINE_LENGTH);
+            for (int i = 0; i < instructions.size(); i++) {
+                putLine(buffer, instructions.get(i));
+            }
+            buffer.force();
+        }
+    }
+}
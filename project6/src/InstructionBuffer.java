@@ -0,0 +1,76 @@
+package com.nand2tetris;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable buffer of encoded Hack instructions, one 16 bit word per instruction.
+ * Text .hack output is only rendered from this buffer at the very end, consumers that want
+ * the raw machine words (emulator, ROM loader) can take them directly.
+ */
+public class InstructionBuffer {
+
+    private short[] words;
+    private int size;
+
+    public InstructionBuffer() {
+        this(1024);
+    }
+
+    public InstructionBuffer(int initialCapacity) {
+        this.words = new short[Math.max(initialCapacity, 16)];
+    }
+
+    /**
+     * Buffer over the first size words of the array, the array is not copied
+     */
+    public InstructionBuffer(short[] words, int size) {
+        this.words = words;
+        this.size = size;
+    }
+
+    public void add(short word) {
+        if (size == words.length) {
+            words = Arrays.copyOf(words, Math.max(words.length * 2, 16));
+        }
+        words[size++] = word;
+    }
+
+    public short get(int address) {
+        if (address >= size) {
+            throw new IndexOutOfBoundsException("Address " + address + " out of bounds for size " + size);
+        }
+        return words[address];
+    }
+
+    public void set(int address, short word) {
+        if (address >= size) {
+            throw new IndexOutOfBoundsException("Address " + address + " out of bounds for size " + size);
+        }
+        words[address] = word;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public short[] toArray() {
+        return Arrays.copyOf(words, size);
+    }
+
+    /**
+     * Read only view over the encoded words, without copying
+     */
+    public ShortBuffer asShortBuffer() {
+        return ShortBuffer.wrap(words, 0, size).asReadOnlyBuffer();
+    }
+
+    /**
+     * Render one word as the 16 character binary text used in .hack files
+     */
+    public static void renderWord(short word, char[] dest, int offset) {
+        for (int bit = 15; bit >= 0; bit--) {
+            dest[offset++] = ((word >>> bit) & 1) == 1 ? '1' : '0';
+        }
+    }
+}
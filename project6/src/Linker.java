@@ -0,0 +1,86 @@
+package com.nand2tetris;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Links relocatable object modules into a single .hack image.
+ * Modules are laid out in the given order. Linking modules gives the same image as assembling
+ * the concatenation of their sources: labels are global, and references no module exports become
+ * variables allocated from 16 in order of first reference.
+ */
+public class Linker {
+
+    private final SymbolTable symbols = new SymbolTable();
+
+    public InstructionBuffer link(List<ObjectModule> modules) {
+        Set<String> exported = new HashSet<>();
+        int[] bases = new int[modules.size()];
+        int size = 0;
+        for (int i = 0; i < modules.size(); i++) {
+            bases[i] = size;
+            for (Map.Entry<String, Integer> label : modules.get(i).getLabels().entrySet()) {
+                if (!exported.add(label.getKey())) {
+                    throw new IllegalStateException("Duplicate label " + label.getKey());
+                }
+                symbols.put(label.getKey(), size + label.getValue());
+            }
+            size += modules.get(i).getCode().length;
+        }
+
+        short[] image = new short[size];
+        for (int i = 0; i < modules.size(); i++) {
+            ObjectModule module = modules.get(i);
+            short[] code = module.getCode();
+            System.arraycopy(code, 0, image, bases[i], code.length);
+            for (int relocation : module.getRelocations()) {
+                image[bases[i] + relocation] += bases[i];
+            }
+        }
+        for (int i = 0; i < modules.size(); i++) {
+            for (Map.Entry<String, int[]> reference : modules.get(i).getReferences().entrySet()) {
+                short address = (short) symbols.resolve(reference.getKey());
+                for (int index : reference.getValue()) {
+                    image[bases[i] + index] = address;
+                }
+            }
+        }
+        return new InstructionBuffer(image, size);
+    }
+
+    /**
+     * Object module of an .asm file, reusing the cached .hobj next to it when it is newer than the source
+     */
+    public static ObjectModule loadOrAssemble(String asmFileName) throws Exception {
+        Path source = Path.of(asmFileName);
+        Path object = Path.of(asmFileName.replaceAll("\\.asm$", "") + ".hobj");
+        if (Files.exists(object)
+                && Files.getLastModifiedTime(object).compareTo(Files.getLastModifiedTime(source)) >= 0) {
+            return ObjectModule.read(object);
+        }
+        System.out.println("Assembling " + asmFileName);
+        ObjectModule module = new Assembler().assembleModule(asmFileName);
+        module.write(object);
+        return module;
+    }
+
+    /**
+     * Usage: Linker output file1.asm file2.asm ...
+     * Writes output.hack, re-assembling only the sources changed since their object module was written
+     */
+    public static void main(String[] args) throws Exception {
+        String outputName = args[0];
+        List<ObjectModule> modules = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            modules.add(loadOrAssemble(args[i]));
+        }
+        InstructionBuffer image = new Linker().link(modules);
+        new Assembler().writeOutput(image, outputName);
+        System.out.println("Linked " + modules.size() + " modules, " + image.size() + " words");
+    }
+}
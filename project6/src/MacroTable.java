@@ -0,0 +1,235 @@
+package com.nand2tetris;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Multi-line macros and pseudo-instructions of the assembler.
+ * A macro is defined in the source with
+ *
+ *     .macro NAME
+ *     ...instructions...
+ *     .endm
+ *
+ * and invoked as "NAME", or as "NAME @symbol" when its body uses the operand "@%".
+ * Each body is encoded once when it is defined: instructions on numbers and predefined symbols become words of the
+ * template, only A-instructions on other symbols (or on the operand) are left to resolve on expansion.
+ * Built in: PUSHD (push D), POPD (pop into D), POPA (pop, leaving A on the popped value), INC @X and DEC @X.
+ * A macro can only be invoked after its definition and can not be redefined. Each pass over the source starts
+ * with reset() and defines the macros again in source order, so every pass sees the same macros at every line.
+ */
+public class MacroTable {
+
+    public static final String DEFINE = ".macro";
+    public static final String END = ".endm";
+    public static final String OPERAND = "%";
+
+    private final CInstructionEncoder encoder;
+    private final SymbolTable predefined = new SymbolTable();
+    // Macro names to index in macros, so invocations can be looked up straight from source bytes
+    private SymbolTable names = SymbolTable.withoutPredefinedSymbols();
+    private final List<Macro> macros = new ArrayList<>();
+    private final int builtIns;
+
+    public MacroTable(CInstructionEncoder encoder) {
+        this.encoder = encoder;
+        define("PUSHD", List.of("@SP", "A=M", "M=D", "@SP", "M=M+1"));
+        define("POPD", List.of("@SP", "AM=M-1", "D=M"));
+        define("POPA", List.of("@SP", "M=M-1", "A=M"));
+        define("INC", List.of("@" + OPERAND, "M=M+1"));
+        define("DEC", List.of("@" + OPERAND, "M=M-1"));
+        builtIns = macros.size();
+    }
+
+    /**
+     * Forget the macros defined in the source, keeping the built in ones
+     */
+    public void reset() {
+        macros.subList(builtIns, macros.size()).clear();
+        names = SymbolTable.withoutPredefinedSymbols();
+        for (int i = 0; i < macros.size(); i++) {
+            names.put(macros.get(i).getName(), i);
+        }
+    }
+
+    public void define(String name, List<String> body) {
+        if (predefined.contains(name) || isInstruction(name)) {
+            throw new IllegalArgumentException("Macro name " + name + " is already a symbol or an instruction");
+        }
+        if (names.contains(name)) {
+            throw new IllegalArgumentException("Macro " + name + " is already defined");
+        }
+        short[] words = new short[body.size()];
+        String[] symbols = new String[body.size()];
+        for (int i = 0; i < body.size(); i++) {
+            String line = body.get(i);
+            if (line.startsWith("(")) {
+                throw new IllegalArgumentException("Labels are not allowed in macro " + name);
+            }
+            if (line.startsWith("@")) {
+                String aVal = line.substring(1);
+                if (!aVal.isEmpty() && Character.isDigit(aVal.charAt(0))) {
+                    words[i] = (short) Integer.parseInt(aVal);
+                } else if (predefined.contains(aVal)) {
+                    words[i] = (short) predefined.get(aVal);
+                } else {
+                    symbols[i] = aVal;
+                }
+            } else {
+                words[i] = encoder.encode(line);
+            }
+        }
+        names.put(name, macros.size());
+        macros.add(new Macro(name, List.copyOf(body), words, symbols));
+    }
+
+    private boolean isInstruction(String name) {
+        try {
+            encoder.encode(name);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the macro invoked by the line, null if the line is not a macro invocation
+     */
+    public Macro get(String line) {
+        int nameEnd = 0;
+        while (nameEnd < line.length() && !Character.isWhitespace(line.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        int index = names.get(line.substring(0, nameEnd));
+        return index == SymbolTable.NOT_FOUND ? null : macros.get(index);
+    }
+
+    /**
+     * @return the macro invoked by the ASCII bytes source[start, end), null if it is not a macro invocation
+     */
+    public Macro get(ByteBuffer source, int start, int end) {
+        int nameEnd = start;
+        while (nameEnd < end && source.get(nameEnd) != ' ' && source.get(nameEnd) != '\t') {
+            nameEnd++;
+        }
+        int index = names.get(source, start, nameEnd);
+        return index == SymbolTable.NOT_FOUND ? null : macros.get(index);
+    }
+
+    /**
+     * Operand symbol of an invocation ("INC @SP" gives "SP"), null if there is none
+     */
+    public static String operand(String invocation) {
+        String[] parts = invocation.strip().split("\\s+");
+        if (parts.length < 2) {
+            return null;
+        }
+        return parts[1].startsWith("@") ? parts[1].substring(1) : parts[1];
+    }
+
+    /**
+     * Whether the line starts a macro definition
+     */
+    public static boolean isDefinition(String line) {
+        return line.startsWith(DEFINE + " ") || line.startsWith(DEFINE + "\t");
+    }
+
+    /**
+     * Define the macro whose ".macro NAME" line is at index start of the cleaned lines
+     * @return index of the line after ".endm"
+     */
+    public int define(List<String> cleanedLines, int start) {
+        String name = cleanedLines.get(start).substring(DEFINE.length()).strip();
+        List<String> body = new ArrayList<>();
+        for (int i = start + 1; i < cleanedLines.size(); i++) {
+            if (cleanedLines.get(i).equals(END)) {
+                define(name, body);
+                return i + 1;
+            }
+            body.add(cleanedLines.get(i));
+        }
+        throw new IllegalArgumentException("Macro " + name + " has no " + END);
+    }
+
+    /**
+     * Textual expansion of cleaned source lines, for the passes that work on source lines.
+     * Definitions are recorded and removed, invocations are replaced by their body.
+     */
+    public List<String> expand(List<String> cleanedLines) {
+        List<String> expanded = new ArrayList<>(cleanedLines.size());
+        int i = 0;
+        while (i < cleanedLines.size()) {
+            String line = cleanedLines.get(i);
+            if (isDefinition(line)) {
+                i = define(cleanedLines, i);
+                continue;
+            }
+            Macro macro = line.startsWith("@") || line.startsWith("(") ? null : get(line);
+            if (macro == null) {
+                expanded.add(line);
+            } else {
+                expanded.addAll(macro.expandText(operand(line)));
+            }
+            i++;
+        }
+        return expanded;
+    }
+
+    public static class Macro {
+        private final String name;
+        private final List<String> body;
+        private final short[] words;
+        private final String[] symbols;
+
+        Macro(String name, List<String> body, short[] words, String[] symbols) {
+            this.name = name;
+            this.body = body;
+            this.words = words;
+            this.symbols = symbols;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int size() {
+            return words.length;
+        }
+
+        /**
+         * Pre-encoded word at index i of the expansion, only valid when symbol(i, operand) is null
+         */
+        public short word(int i) {
+            return words[i];
+        }
+
+        /**
+         * Symbol the A-instruction at index i of the expansion refers to, null if the word is already encoded
+         */
+        public String symbol(int i, String operand) {
+            String symbol = symbols[i];
+            if (OPERAND.equals(symbol)) {
+                if (operand == null) {
+                    throw new IllegalArgumentException("Macro " + name + " needs an operand");
+                }
+                return operand;
+            }
+            return symbol;
+        }
+
+        public List<String> expandText(String operand) {
+            List<String> lines = new ArrayList<>(body.size());
+            for (int i = 0; i < body.size(); i++) {
+                lines.add(OPERAND.equals(symbols[i]) ? "@" + symbol(i, operand) : body.get(i));
+            }
+            return lines;
+        }
+
+        @Override
+        public String toString() {
+            return "Macro{" + name + ", words=" + Arrays.toString(words) + '}';
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.nand2tetris;
+
+import java.util.Arrays;
+
+/**
+ * Runs the program of a HackComputer from micro-ops decoded once at load time, instead of decoding the
+ * instruction bits on every cycle.
+ * Each ROM address gets one int micro-op: the operand in bits 0-15, jump bits in 16-18, dest bits in 19-21,
+ * a fused flag in bit 22 and the kind in the bits above. C-instructions get one kind per computation of the
+ * instruction set, so the ALU is a single switch.
+ * An A-instruction followed by a C-instruction is fused into one micro-op that loads A and runs the
+ * C-instruction with a single dispatch. The most common pairs of VM translator output get their own
+ * superinstruction. The micro-op of the C-instruction itself stays at the next address for jumps that land on it.
+ * A fused micro-op counts as 2 cycles. When only 1 cycle of the budget is left only its A-instruction runs, so
+ * cycle counts and the state after run(n) are exactly those of HackComputer.run(n).
+ */
+public class MicroOpEngine {
+
+    private static final int JUMP_SHIFT = 16;
+    private static final int DEST_SHIFT = 19;
+    private static final int FUSED = 1 << 22;
+    private static final int KIND_SHIFT = 23;
+
+    private static final int DEST_M = 1 << DEST_SHIFT;
+    private static final int DEST_D = 2 << DEST_SHIFT;
+    private static final int DEST_A = 4 << DEST_SHIFT;
+
+    // Kinds
+    private static final int A_LOAD = 0;
+    // Computation outside the instruction set, the ALU control bits and the a-bit are the operand
+    private static final int GENERIC = 1;
+    private static final int ZERO = 2;
+    private static final int ONE = 3;
+    private static final int MINUS_ONE = 4;
+    private static final int D = 5;
+    private static final int A = 6;
+    private static final int NOT_D = 7;
+    private static final int NOT_A = 8;
+    private static final int NEG_D = 9;
+    private static final int NEG_A = 10;
+    private static final int D_PLUS_1 = 11;
+    private static final int A_PLUS_1 = 12;
+    private static final int D_MINUS_1 = 13;
+    private static final int A_MINUS_1 = 14;
+    private static final int D_PLUS_A = 15;
+    private static final int D_MINUS_A = 16;
+    private static final int A_MINUS_D = 17;
+    private static final int D_AND_A = 18;
+    private static final int D_OR_A = 19;
+    private static final int M = 20;
+    private static final int NOT_M = 21;
+    private static final int NEG_M = 22;
+    private static final int M_PLUS_1 = 23;
+    private static final int M_MINUS_1 = 24;
+    private static final int D_PLUS_M = 25;
+    private static final int D_MINUS_M = 26;
+    private static final int M_MINUS_D = 27;
+    private static final int D_AND_M = 28;
+    private static final int D_OR_M = 29;
+    // Superinstructions, always fused and only for addresses below KBD
+    private static final int LOAD_D_M = 30;     // @X D=M
+    private static final int STORE_M_D = 31;    // @X M=D
+    private static final int POP_AM = 32;       // @X AM=M-1
+    private static final int JUMP = 33;         // @X 0;JMP
+    private static final int LOAD_D_A = 34;     // @X D=A
+    private static final int INC_M = 35;        // @X M=M+1
+
+    // Kind of each computation, indexed by the a-bit and the 6 ALU control bits
+    private static final int[] COMP_KIND = new int[128];
+
+    static {
+        Arrays.fill(COMP_KIND, GENERIC);
+        COMP_KIND[0b0101010] = ZERO;
+        COMP_KIND[0b0111111] = ONE;
+        COMP_KIND[0b0111010] = MINUS_ONE;
+        COMP_KIND[0b0001100] = D;
+        COMP_KIND[0b0110000] = A;
+        COMP_KIND[0b0001101] = NOT_D;
+        COMP_KIND[0b0110001] = NOT_A;
+        COMP_KIND[0b0001111] = NEG_D;
+        COMP_KIND[0b0110011] = NEG_A;
+        COMP_KIND[0b0011111] = D_PLUS_1;
+        COMP_KIND[0b0110111] = A_PLUS_1;
+        COMP_KIND[0b0001110] = D_MINUS_1;
+        COMP_KIND[0b0110010] = A_MINUS_1;
+        COMP_KIND[0b0000010] = D_PLUS_A;
+        COMP_KIND[0b0010011] = D_MINUS_A;
+        COMP_KIND[0b0000111] = A_MINUS_D;
+        COMP_KIND[0b0000000] = D_AND_A;
+        COMP_KIND[0b0010101] = D_OR_A;
+        COMP_KIND[0b1110000] = M;
+        COMP_KIND[0b1110001] = NOT_M;
+        COMP_KIND[0b1110011] = NEG_M;
+        COMP_KIND[0b1110111] = M_PLUS_1;
+        COMP_KIND[0b1110010] = M_MINUS_1;
+        COMP_KIND[0b1000010] = D_PLUS_M;
+        COMP_KIND[0b1010011] = D_MINUS_M;
+        COMP_KIND[0b1000111] = M_MINUS_D;
+        COMP_KIND[0b1000000] = D_AND_M;
+        COMP_KIND[0b1010101] = D_OR_M;
+    }
+
+    private final HackComputer computer;
+    private final int[] code;
+    private int fusedCount;
+
+    public MicroOpEngine(HackComputer computer) {
+        this.computer = computer;
+        this.code = new int[HackComputer.ROM_SIZE];
+        decode();
+    }
+
+    /**
+     * Engine for another computer running the same program, sharing the decoded micro-ops
+     */
+    public MicroOpEngine(MicroOpEngine decoded, HackComputer computer) {
+        if (computer.rom != decoded.computer.rom) {
+            throw new IllegalArgumentException("The computer does not run the program of the decoded engine");
+        }
+        this.computer = computer;
+        this.code = decoded.code;
+        this.fusedCount = decoded.fusedCount;
+    }
+
+    private void decode() {
+        short[] rom = computer.rom;
+        for (int address = 0; address < HackComputer.ROM_SIZE; address++) {
+            int instruction = rom[address];
+            if (instruction >= 0) {
+                int next = address + 1 < HackComputer.ROM_SIZE ? rom[address + 1] : 0;
+                code[address] = next < 0 ? fuse(instruction, next) : A_LOAD << KIND_SHIFT | instruction;
+            } else {
+                code[address] = decodeC(instruction);
+            }
+        }
+    }
+
+    private static int decodeC(int instruction) {
+        int comp = instruction >> 6 & 0x7F;
+        int kind = COMP_KIND[comp];
+        int fields = (instruction & 0x07) << JUMP_SHIFT | (instruction >> 3 & 0x07) << DEST_SHIFT;
+        return kind << KIND_SHIFT | fields | (kind == GENERIC ? comp : 0);
+    }
+
+    private int fuse(int value, int instruction) {
+        int c = decodeC(instruction);
+        int kind = c >>> KIND_SHIFT;
+        if (kind == GENERIC) {
+            return A_LOAD << KIND_SHIFT | value;
+        }
+        fusedCount++;
+        int fields = c & (0x3F << JUMP_SHIFT);
+        if (value < HackComputer.KBD) {
+            if (kind == M && fields == DEST_D) {
+                return LOAD_D_M << KIND_SHIFT | FUSED | value;
+            } else if (kind == D && fields == DEST_M) {
+                return STORE_M_D << KIND_SHIFT | FUSED | value;
+            } else if (kind == M_MINUS_1 && fields == (DEST_A | DEST_M)) {
+                return POP_AM << KIND_SHIFT | FUSED | value;
+            } else if (kind == M_PLUS_1 && fields == DEST_M) {
+                return INC_M << KIND_SHIFT | FUSED | value;
+            }
+        }
+        if (kind == ZERO && fields == 7 << JUMP_SHIFT) {
+            return JUMP << KIND_SHIFT | FUSED | value;
+        } else if (kind == A && fields == DEST_D) {
+            return LOAD_D_A << KIND_SHIFT | FUSED | value;
+        }
+        return c | FUSED | value;
+    }
+
+    public HackComputer getComputer() {
+        return computer;
+    }
+
+    /**
+     * Number of A/C pairs fused into one micro-op
+     */
+    public int getFusedCount() {
+        return fusedCount;
+    }
+
+    /**
+     * Execute up to maxCycles instructions on the computer, stopping early when the program is halted in its final loop
+     * @return the number of instructions executed
+     */
+    public long run(long maxCycles) {
+        final int[] code = this.code;
+        final short[] ram = computer.ram;
+        final short[] rom = computer.rom;
+        int a = computer.a;
+        int d = computer.d;
+        int pc = computer.pc;
+        long dirty = computer.dirtyPages;
+        long executed = 0;
+        loop:
+        while (executed < maxCycles) {
+            int op = code[pc];
+            if ((op & FUSED) != 0) {
+                a = op & 0x7FFF;
+                pc = (pc + 1) & 0x7FFF;
+                executed++;
+                if (executed == maxCycles) {
+                    break;
+                }
+            }
+            executed++;
+            int out;
+            switch (op >>> KIND_SHIFT) {
+                case A_LOAD:
+                    a = op & 0x7FFF;
+                    pc = (pc + 1) & 0x7FFF;
+                    continue;
+                case LOAD_D_M:
+                    d = ram[a];
+                    pc = (pc + 1) & 0x7FFF;
+                    continue;
+                case STORE_M_D:
+                    ram[a] = (short) d;
+                    dirty |= 1L << (a >>> HackComputer.PAGE_SHIFT);
+                    pc = (pc + 1) & 0x7FFF;
+                    continue;
+                case POP_AM:
+                    out = (short) (ram[a] - 1);
+                    ram[a] = (short) out;
+                    dirty |= 1L << (a >>> HackComputer.PAGE_SHIFT);
+                    a = out;
+                    pc = (pc + 1) & 0x7FFF;
+                    continue;
+                case INC_M:
+                    ram[a] = (short) (ram[a] + 1);
+                    dirty |= 1L << (a >>> HackComputer.PAGE_SHIFT);
+                    pc = (pc + 1) & 0x7FFF;
+                    continue;
+                case LOAD_D_A:
+                    d = a;
+                    pc = (pc + 1) & 0x7FFF;
+                    continue;
+                case JUMP:
+                    if (a == pc - 1) {
+                        // "(END) @END 0;JMP"
+                        computer.halted = true;
+                        pc = a;
+                        break loop;
+                    }
+                    pc = a;
+                    continue;
+                case ZERO: out = 0; break;
+                case ONE: out = 1; break;
+                case MINUS_ONE: out = -1; break;
+                case D: out = d; break;
+                case A: out = a; break;
+                case NOT_D: out = ~d; break;
+                case NOT_A: out = ~a; break;
+                case NEG_D: out = (short) -d; break;
+                case NEG_A: out = (short) -a; break;
+                case D_PLUS_1: out = (short) (d + 1); break;
+                case A_PLUS_1: out = (short) (a + 1); break;
+                case D_MINUS_1: out = (short) (d - 1); break;
+                case A_MINUS_1: out = (short) (a - 1); break;
+                case D_PLUS_A: out = (short) (d + a); break;
+                case D_MINUS_A: out = (short) (d - a); break;
+                case A_MINUS_D: out = (short) (a - d); break;
+                case D_AND_A: out = d & a; break;
+                case D_OR_A: out = d | a; break;
+                case M: out = ram[Math.min(a & 0x7FFF, HackComputer.KBD)]; break;
+                case NOT_M: out = ~ram[Math.min(a & 0x7FFF, HackComputer.KBD)]; break;
+                case NEG_M: out = (short) -ram[Math.min(a & 0x7FFF, HackComputer.KBD)]; break;
+                case M_PLUS_1: out = (short) (ram[Math.min(a & 0x7FFF, HackComputer.KBD)] + 1); break;
+                case M_MINUS_1: out = (short) (ram[Math.min(a & 0x7FFF, HackComputer.KBD)] - 1); break;
+                case D_PLUS_M: out = (short) (d + ram[Math.min(a & 0x7FFF, HackComputer.KBD)]); break;
+                case D_MINUS_M: out = (short) (d - ram[Math.min(a & 0x7FFF, HackComputer.KBD)]); break;
+                case M_MINUS_D: out = (short) (ram[Math.min(a & 0x7FFF, HackComputer.KBD)] - d); break;
+                case D_AND_M: out = d & ram[Math.min(a & 0x7FFF, HackComputer.KBD)]; break;
+                case D_OR_M: out = d | ram[Math.min(a & 0x7FFF, HackComputer.KBD)]; break;
+                default:
+                    out = HackComputer.alu(op & 0x3F, d, (op & 0x40) != 0 ? ram[Math.min(a & 0x7FFF, HackComputer.KBD)] : a);
+                    break;
+            }
+            int address = a & 0x7FFF;
+            if ((op & DEST_M) != 0 && address < HackComputer.KBD) {
+                ram[address] = (short) out;
+                dirty |= 1L << (address >>> HackComputer.PAGE_SHIFT);
+            }
+            if ((op & DEST_A) != 0) {
+                a = out;
+            }
+            if ((op & DEST_D) != 0) {
+                d = out;
+            }
+            int condition = out < 0 ? 4 : out == 0 ? 2 : 1;
+            if ((op >> JUMP_SHIFT & condition) != 0) {
+                if (address == pc - 1 && (op & (7 << DEST_SHIFT)) == 0 && rom[address] == address) {
+                    computer.halted = true;
+                    pc = address;
+                    break loop;
+                }
+                pc = address;
+            } else {
+                pc = (pc + 1) & 0x7FFF;
+            }
+        }
+        computer.a = a;
+        computer.d = d;
+        computer.pc = pc;
+        computer.dirtyPages = dirty;
+        computer.cycles += executed;
+        return executed;
+    }
+}
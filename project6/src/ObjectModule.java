@@ -0,0 +1,129 @@
+package com.nand2tetris;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Relocatable object module produced by assembling one .asm file on its own.
+ * Code words referring to the module's own labels hold the module-relative address and are listed in relocations.
+ * Symbols that are neither module labels nor predefined are listed in references with every code index using them,
+ * in order of first reference; the Linker binds them to labels exported by other modules, or else allocates them as variables.
+ */
+public class ObjectModule {
+
+    private static final int MAGIC = 0x484F424A; // "HOBJ"
+    private static final int VERSION = 1;
+
+    private final short[] code;
+    private final Map<String, Integer> labels;
+    private final int[] relocations;
+    private final Map<String, int[]> references;
+
+    public ObjectModule(short[] code, Map<String, Integer> labels, int[] relocations, Map<String, int[]> references) {
+        this.code = code;
+        this.labels = labels;
+        this.relocations = relocations;
+        this.references = references;
+    }
+
+    public short[] getCode() {
+        return code;
+    }
+
+    /**
+     * Labels defined in this module with their module-relative addresses, all labels are exported
+     */
+    public Map<String, Integer> getLabels() {
+        return labels;
+    }
+
+    public int[] getRelocations() {
+        return relocations;
+    }
+
+    /**
+     * Unresolved symbols with the code indices referring to them, in order of first reference
+     */
+    public Map<String, int[]> getReferences() {
+        return references;
+    }
+
+    public void write(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(code.length);
+            for (short word : code) {
+                out.writeShort(word);
+            }
+            out.writeInt(labels.size());
+            for (Map.Entry<String, Integer> label : labels.entrySet()) {
+                out.writeUTF(label.getKey());
+                out.writeInt(label.getValue());
+            }
+            writeInts(out, relocations);
+            out.writeInt(references.size());
+            for (Map.Entry<String, int[]> reference : references.entrySet()) {
+                out.writeUTF(reference.getKey());
+                writeInts(out, reference.getValue());
+            }
+        }
+    }
+
+    public static ObjectModule read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a Hack object module: " + path);
+            }
+            short[] code = new short[in.readInt()];
+            for (int i = 0; i < code.length; i++) {
+                code[i] = in.readShort();
+            }
+            int labelCount = in.readInt();
+            Map<String, Integer> labels = new LinkedHashMap<>();
+            for (int i = 0; i < labelCount; i++) {
+                labels.put(in.readUTF(), in.readInt());
+            }
+            int[] relocations = readInts(in);
+            int referenceCount = in.readInt();
+            Map<String, int[]> references = new LinkedHashMap<>();
+            for (int i = 0; i < referenceCount; i++) {
+                references.put(in.readUTF(), readInts(in));
+            }
+            return new ObjectModule(code, labels, relocations, references);
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return "ObjectModule{" +
+                "code=" + code.length +
+                ", labels=" + labels.size() +
+                ", relocations=" + relocations.length +
+                ", references=" + Arrays.toString(references.keySet().toArray()) +
+                '}';
+    }
+}
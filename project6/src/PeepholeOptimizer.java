@@ -0,0 +1,206 @@
+package com.nand2tetris;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Optional optimization stage run over the cleaned source lines (labels included) before addresses are assigned.
+ * Applies the enabled rules repeatedly until none of them removes anything. A label is always treated as a
+ * barrier, since code after it can be reached from elsewhere.
+ * Programs using numbers as ROM addresses of their code (e.g. "@133" then "0;JMP", see
+ * Assembler.usesNumericCodeAddresses) are left untouched, as removing any instruction would move those addresses.
+ */
+public class PeepholeOptimizer {
+
+    public enum Rule {
+        // @X ... @X with nothing in between changing A, the second load is redundant
+        REDUNDANT_A_LOAD,
+        // M=M+1 directly followed by M=M-1 (or the reverse) on the same address cancel out
+        CANCELLING_INC_DEC,
+        // D=... whose value is overwritten before it is read
+        DEAD_D_STORE,
+        // Code after an unconditional jump up to the next label can never run
+        UNREACHABLE_AFTER_JUMP
+    }
+
+    private final Set<Rule> rules;
+    private final Map<Rule, Integer> wordsSavedByRule = new EnumMap<>(Rule.class);
+    private boolean skipped;
+
+    public PeepholeOptimizer() {
+        this(EnumSet.allOf(Rule.class));
+    }
+
+    public PeepholeOptimizer(Set<Rule> rules) {
+        this.rules = rules;
+    }
+
+    public List<String> optimize(List<String> cleanedLines) {
+        wordsSavedByRule.clear();
+        skipped = Assembler.usesNumericCodeAddresses(cleanedLines);
+        if (skipped) {
+            return cleanedLines;
+        }
+        List<String> lines = cleanedLines;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Rule rule : rules) {
+                List<String> optimized = apply(rule, lines);
+                if (optimized.size() < lines.size()) {
+                    wordsSavedByRule.merge(rule, lines.size() - optimized.size(), Integer::sum);
+                    lines = optimized;
+                    changed = true;
+                }
+            }
+        }
+        return lines;
+    }
+
+    public int getWordsSaved() {
+        return wordsSavedByRule.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    public Map<Rule, Integer> getWordsSavedByRule() {
+        return wordsSavedByRule;
+    }
+
+    public String report() {
+        if (skipped) {
+            return "Peephole optimizer skipped: program uses numeric ROM addresses";
+        }
+        return "Peephole optimizer saved " + getWordsSaved() + " ROM words " + wordsSavedByRule;
+    }
+
+    private List<String> apply(Rule rule, List<String> lines) {
+        switch (rule) {
+            case REDUNDANT_A_LOAD:
+                return removeRedundantALoads(lines);
+            case CANCELLING_INC_DEC:
+                return removeCancellingIncDec(lines);
+            case DEAD_D_STORE:
+                return removeDeadDStores(lines);
+            case UNREACHABLE_AFTER_JUMP:
+                return removeUnreachableAfterJump(lines);
+            default:
+                return lines;
+        }
+    }
+
+    private List<String> removeRedundantALoads(List<String> lines) {
+        List<String> output = new ArrayList<>(lines.size());
+        String aHolds = null;
+        for (String line : lines) {
+            if (isLabel(line)) {
+                aHolds = null;
+            } else if (isAInstruction(line)) {
+                if (line.equals(aHolds)) {
+                    continue;
+                }
+                aHolds = line;
+            } else if (dest(line).contains("A")) {
+                aHolds = null;
+            }
+            output.add(line);
+        }
+        return output;
+    }
+
+    private List<String> removeCancellingIncDec(List<String> lines) {
+        List<String> output = new ArrayList<>(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (i + 1 < lines.size()) {
+                String next = lines.get(i + 1);
+                if ((line.equals("M=M+1") && next.equals("M=M-1")) || (line.equals("M=M-1") && next.equals("M=M+1"))) {
+                    i++;
+                    continue;
+                }
+            }
+            output.add(line);
+        }
+        return output;
+    }
+
+    private List<String> removeDeadDStores(List<String> lines) {
+        List<String> output = new ArrayList<>(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (isCInstruction(line) && dest(line).equals("D") && jump(line).isEmpty() && isDOverwritten(lines, i + 1)) {
+                continue;
+            }
+            output.add(line);
+        }
+        return output;
+    }
+
+    /**
+     * Whether D is written before being read when running from the given index, without crossing a label
+     */
+    private boolean isDOverwritten(List<String> lines, int from) {
+        for (int i = from; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (isLabel(line)) {
+                return false;
+            }
+            if (isAInstruction(line)) {
+                continue;
+            }
+            if (comp(line).contains("D") || !jump(line).isEmpty()) {
+                return false;
+            }
+            if (dest(line).contains("D")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<String> removeUnreachableAfterJump(List<String> lines) {
+        List<String> output = new ArrayList<>(lines.size());
+        boolean unreachable = false;
+        for (String line : lines) {
+            if (isLabel(line)) {
+                unreachable = false;
+            } else if (unreachable) {
+                continue;
+            } else if (isCInstruction(line) && jump(line).equals("JMP")) {
+                unreachable = true;
+            }
+            output.add(line);
+        }
+        return output;
+    }
+
+    private static boolean isLabel(String line) {
+        return line.startsWith("(");
+    }
+
+    private static boolean isAInstruction(String line) {
+        return line.startsWith("@");
+    }
+
+    private static boolean isCInstruction(String line) {
+        return !isLabel(line) && !isAInstruction(line);
+    }
+
+    private static String dest(String cCommand) {
+        int equals = cCommand.indexOf('=');
+        return equals < 0 ? "" : cCommand.substring(0, equals);
+    }
+
+    private static String comp(String cCommand) {
+        int equals = cCommand.indexOf('=');
+        int semicolon = cCommand.indexOf(';');
+        return cCommand.substring(equals + 1, semicolon < 0 ? cCommand.length() : semicolon);
+    }
+
+    private static String jump(String cCommand) {
+        int semicolon = cCommand.indexOf(';');
+        return semicolon < 0 ? "" : cCommand.substring(semicolon + 1);
+    }
+}
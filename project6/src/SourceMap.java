@@ -0,0 +1,215 @@
+package com.nand2tetris;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Links ROM addresses of an assembled program back to its source, for profilers and emulators.
+ * The listing holds, indexed by ROM address, the .asm line number and the enclosing label (the last label at or
+ * before the address), so both lookups are an array access. The symbol file holds every label and variable
+ * with its address.
+ * Listing file (.lst): "HLST", version, instruction count, line numbers, enclosing label indexes, labels (address, name).
+ * Symbol file (.sym): "HSYM", version, symbol count, symbols (kind, address, name).
+ */
+public class SourceMap {
+
+    public static final byte LABEL = 0;
+    public static final byte VARIABLE = 1;
+
+    private static final int LISTING_MAGIC = 0x484C5354; // "HLST"
+    private static final int SYMBOLS_MAGIC = 0x4853594D; // "HSYM"
+    private static final int VERSION = 1;
+
+    private final int[] sourceLines;
+    private final int[] enclosingLabels;
+    private final int[] labelAddresses;
+    private final String[] labelNames;
+    private final Map<String, Integer> labels = new HashMap<>();
+    private final Map<String, Integer> variables = new HashMap<>();
+
+    private SourceMap(int[] sourceLines, int[] enclosingLabels, int[] labelAddresses, String[] labelNames) {
+        this.sourceLines = sourceLines;
+        this.enclosingLabels = enclosingLabels;
+        this.labelAddresses = labelAddresses;
+        this.labelNames = labelNames;
+    }
+
+    public int size() {
+        return sourceLines.length;
+    }
+
+    /**
+     * Line of the .asm file the instruction at the ROM address was assembled from, starting at 1
+     */
+    public int sourceLine(int address) {
+        return sourceLines[address];
+    }
+
+    /**
+     * Name of the last label at or before the ROM address, null if there is none
+     */
+    public String enclosingLabel(int address) {
+        int label = enclosingLabels[address];
+        return label < 0 ? null : labelNames[label];
+    }
+
+    /**
+     * Index of the enclosing label in labelNames(), -1 if there is none
+     */
+    public int enclosingLabelIndex(int address) {
+        return enclosingLabels[address];
+    }
+
+    /**
+     * Labels in address order
+     */
+    public String[] labelNames() {
+        return labelNames;
+    }
+
+    public int[] labelAddresses() {
+        return labelAddresses;
+    }
+
+    public Map<String, Integer> labels() {
+        return labels;
+    }
+
+    public Map<String, Integer> variables() {
+        return variables;
+    }
+
+    public void writeListing(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(LISTING_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sourceLines.length);
+            for (int line : sourceLines) {
+                out.writeInt(line);
+            }
+            for (int label : enclosingLabels) {
+                out.writeInt(label);
+            }
+            out.writeInt(labelNames.length);
+            for (int i = 0; i < labelNames.length; i++) {
+                out.writeInt(labelAddresses[i]);
+                out.writeUTF(labelNames[i]);
+            }
+        }
+    }
+
+    public void writeSymbols(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(SYMBOLS_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(labels.size() + variables.size());
+            for (Map.Entry<String, Integer> label : labels.entrySet()) {
+                out.writeByte(LABEL);
+                out.writeInt(label.getValue());
+                out.writeUTF(label.getKey());
+            }
+            for (Map.Entry<String, Integer> variable : variables.entrySet()) {
+                out.writeByte(VARIABLE);
+                out.writeInt(variable.getValue());
+                out.writeUTF(variable.getKey());
+            }
+        }
+    }
+
+    public static SourceMap read(Path listing, Path symbols) throws IOException {
+        SourceMap sourceMap;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(listing)))) {
+            if (in.readInt() != LISTING_MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a Hack listing: " + listing);
+            }
+            int size = in.readInt();
+            int[] sourceLines = new int[size];
+            int[] enclosingLabels = new int[size];
+            for (int i = 0; i < size; i++) {
+                sourceLines[i] = in.readInt();
+            }
+            for (int i = 0; i < size; i++) {
+                enclosingLabels[i] = in.readInt();
+            }
+            int labelCount = in.readInt();
+            int[] labelAddresses = new int[labelCount];
+            String[] labelNames = new String[labelCount];
+            for (int i = 0; i < labelCount; i++) {
+                labelAddresses[i] = in.readInt();
+                labelNames[i] = in.readUTF();
+            }
+            sourceMap = new SourceMap(sourceLines, enclosingLabels, labelAddresses, labelNames);
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(symbols)))) {
+            if (in.readInt() != SYMBOLS_MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a Hack symbol file: " + symbols);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte kind = in.readByte();
+                int address = in.readInt();
+                String name = in.readUTF();
+                (kind == LABEL ? sourceMap.labels : sourceMap.variables).put(name, address);
+            }
+        }
+        return sourceMap;
+    }
+
+    /**
+     * Collects the source map while the Assembler runs. Labels must be added in address order.
+     */
+    public static class Builder {
+        private int[] sourceLines = new int[1024];
+        private int size;
+        private final List<String> labelNames = new ArrayList<>();
+        private final List<Integer> labelAddresses = new ArrayList<>();
+        private final Map<String, Integer> variables = new HashMap<>();
+
+        public void addLabel(String label, int address) {
+            labelNames.add(label);
+            labelAddresses.add(address);
+        }
+
+        public void addVariable(String variable, int address) {
+            variables.put(variable, address);
+        }
+
+        /**
+         * Record the source line of the next instruction
+         */
+        public void addInstruction(int sourceLine) {
+            if (size == sourceLines.length) {
+                sourceLines = Arrays.copyOf(sourceLines, size * 2);
+            }
+            sourceLines[size++] = sourceLine;
+        }
+
+        public SourceMap build() {
+            int[] enclosingLabels = new int[size];
+            int label = -1;
+            for (int address = 0; address < size; address++) {
+                while (label + 1 < labelAddresses.size() && labelAddresses.get(label + 1) <= address) {
+                    label++;
+                }
+                enclosingLabels[address] = label;
+            }
+            SourceMap sourceMap = new SourceMap(Arrays.copyOf(sourceLines, size), enclosingLabels,
+                    labelAddresses.stream().mapToInt(Integer::intValue).toArray(), labelNames.toArray(new String[0]));
+            for (int i = 0; i < labelNames.size(); i++) {
+                sourceMap.labels.put(labelNames.get(i), labelAddresses.get(i));
+            }
+            sourceMap.variables.putAll(variables);
+            return sourceMap;
+        }
+    }
+}
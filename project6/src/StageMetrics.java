@@ -0,0 +1,173 @@
+package com.nand2tetris;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Timing of the stages of a tool (read, parse, optimize, translate, write) per file. Every stage run is a
+ * "nand2tetris.Stage" JDK Flight Recorder event and is added to the totals kept in process per tool and stage:
+ *
+ *     StageMetrics.Timer timer = StageMetrics.start("assembler", "read", fileName);
+ *     List<String> lines = Files.readAllLines(path);
+ *     timer.stop(Files.size(path), 0, 0);
+ *
+ * Allocation is measured on the current thread, where the JVM supports it.
+ */
+public class StageMetrics {
+
+    @Name("nand2tetris.Stage")
+    @Label("Toolchain Stage")
+    @Category("nand2tetris")
+    @StackTrace(false)
+    static class StageEvent extends Event {
+        @Label("Tool")
+        String tool;
+        @Label("Stage")
+        String stage;
+        @Label("File")
+        String file;
+        @Label("Bytes In")
+        @DataAmount
+        long bytesIn;
+        @Label("Bytes Out")
+        @DataAmount
+        long bytesOut;
+        @Label("Instructions")
+        long instructions;
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+
+    public static class Totals {
+        long count;
+        long nanos;
+        long maxNanos;
+        long bytesIn;
+        long bytesOut;
+        long instructions;
+        long allocated;
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        public long getInstructions() {
+            return instructions;
+        }
+
+        public long getAllocated() {
+            return allocated;
+        }
+    }
+
+    public static class Timer {
+        private final String tool;
+        private final String stage;
+        private final String file;
+        private final StageEvent event = new StageEvent();
+        private final long start;
+        private final long startAllocated;
+
+        private Timer(String tool, String stage, String file) {
+            this.tool = tool;
+            this.stage = stage;
+            this.file = file;
+            this.startAllocated = allocatedBytes();
+            event.begin();
+            this.start = System.nanoTime();
+        }
+
+        /**
+         * End the stage, counting the bytes it read and wrote and the instructions it emitted
+         */
+        public void stop(long bytesIn, long bytesOut, long instructions) {
+            long nanos = System.nanoTime() - start;
+            event.end();
+            long allocated = startAllocated < 0 ? 0 : allocatedBytes() - startAllocated;
+            if (event.shouldCommit()) {
+                event.tool = tool;
+                event.stage = stage;
+                event.file = file;
+                event.bytesIn = bytesIn;
+                event.bytesOut = bytesOut;
+                event.instructions = instructions;
+                event.allocated = allocated;
+                event.commit();
+            }
+            Totals totals = registry.computeIfAbsent(tool + "." + stage, key -> new Totals());
+            synchronized (totals) {
+                totals.count++;
+                totals.nanos += nanos;
+                totals.maxNanos = Math.max(totals.maxNanos, nanos);
+                totals.bytesIn += bytesIn;
+                totals.bytesOut += bytesOut;
+                totals.instructions += instructions;
+                totals.allocated += allocated;
+            }
+        }
+    }
+
+    private static final Map<String, Totals> registry = new ConcurrentHashMap<>();
+
+    public static Timer start(String tool, String stage, String file) {
+        return new Timer(tool, stage, file);
+    }
+
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                    .getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+
+    /**
+     * Totals per "tool.stage" since the start or the last reset
+     */
+    public static Map<String, Totals> totals() {
+        return new TreeMap<>(registry);
+    }
+
+    public static void reset() {
+        registry.clear();
+    }
+
+    public static String report() {
+        StringBuilder report = new StringBuilder(String.format("%-24s %6s %10s %10s %12s %12s %12s %12s%n",
+                "stage", "runs", "total ms", "max ms", "bytes in", "bytes out", "instructions", "allocated"));
+        for (Map.Entry<String, Totals> entry : totals().entrySet()) {
+            Totals totals = entry.getValue();
+            synchronized (totals) {
+                report.append(String.format("%-24s %6d %10.2f %10.2f %12d %12d %12d %12d%n", entry.getKey(),
+                        totals.count, totals.nanos / 1e6, totals.maxNanos / 1e6, totals.bytesIn, totals.bytesOut,
+                        totals.instructions, totals.allocated));
+            }
+        }
+        return report.toString();
+    }
+}
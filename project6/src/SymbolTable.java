@@ -0,0 +1,168 @@
+package com.nand2tetris;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Symbol table of the assembler mapping labels and variables to int addresses.
+ * Open addressing with linear probing over parallel key/value arrays, so no boxing or
+ * number parsing happens on insert or lookup.
+ * Preloaded with the predefined symbols, variables are allocated from address 16 upward.
+ */
+public class SymbolTable {
+
+    public static final int NOT_FOUND = -1;
+    public static final int FIRST_VARIABLE_ADDRESS = 16;
+
+    private String[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+
+    // Next address to assign to a variable
+    private int variableReferenceCounter = FIRST_VARIABLE_ADDRESS;
+
+    public SymbolTable() {
+        this(64);
+    }
+
+    public SymbolTable(int expectedSymbols) {
+        this(expectedSymbols, true);
+    }
+
+    private SymbolTable(int expectedSymbols, boolean predefinedSymbols) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSymbols, 16) * 2 - 1) << 1;
+        this.keys = new String[capacity];
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+
+        if (predefinedSymbols) {
+            for (int i = 0; i < 16; i++) {
+                put("R" + i, i);
+            }
+            put("SP", 0);
+            put("LCL", 1);
+            put("ARG", 2);
+            put("THIS", 3);
+            put("THAT", 4);
+            put("SCREEN", 16384);
+            put("KBD", 24576);
+        }
+    }
+
+    /**
+     * Table without the predefined symbols, for other name to int mappings
+     */
+    public static SymbolTable withoutPredefinedSymbols() {
+        return new SymbolTable(16, false);
+    }
+
+    public void put(String symbol, int address) {
+        int slot = slot(symbol);
+        if (keys[slot] == null) {
+            keys[slot] = symbol;
+            size++;
+        }
+        values[slot] = address;
+        if (size * 2 > keys.length) {
+            grow();
+        }
+    }
+
+    /**
+     * @return address of the symbol, NOT_FOUND if it is not in the table
+     */
+    public int get(String symbol) {
+        int slot = slot(symbol);
+        return keys[slot] == null ? NOT_FOUND : values[slot];
+    }
+
+    /**
+     * Look up the symbol spelled by the ASCII bytes source[start, end) without creating a String.
+     * The hash is computed the same way as String.hashCode, so it finds the keys inserted as Strings.
+     * @return address of the symbol, NOT_FOUND if it is not in the table
+     */
+    public int get(ByteBuffer source, int start, int end) {
+        int hashCode = 0;
+        for (int i = start; i < end; i++) {
+            hashCode = 31 * hashCode + (source.get(i) & 0xFF);
+        }
+        int slot = hash(hashCode) & mask;
+        String key;
+        while ((key = keys[slot]) != null) {
+            if (matches(key, source, start, end)) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NOT_FOUND;
+    }
+
+    private static boolean matches(String key, ByteBuffer source, int start, int end) {
+        if (key.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) != (source.get(start + i) & 0xFF)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean contains(String symbol) {
+        return keys[slot(symbol)] != null;
+    }
+
+    /**
+     * Address of a label or known variable. A symbol seen for the first time is a variable and gets the next free address.
+     */
+    public int resolve(String symbol) {
+        int slot = slot(symbol);
+        if (keys[slot] != null) {
+            return values[slot];
+        }
+        return allocateVariable(symbol);
+    }
+
+    public int allocateVariable(String symbol) {
+        int address = variableReferenceCounter++;
+        put(symbol, address);
+        return address;
+    }
+
+    public int getVariableReferenceCounter() {
+        return variableReferenceCounter;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int slot(String symbol) {
+        int slot = hash(symbol.hashCode()) & mask;
+        String key;
+        while ((key = keys[slot]) != null && !key.equals(symbol)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    static int hash(int hashCode) {
+        return hashCode ^ (hashCode >>> 16);
+    }
+
+    private void grow() {
+        String[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new String[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
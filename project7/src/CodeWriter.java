@@ -414,16 +414,33 @@ public class CodeWriter {
     public void flush() {
         String inputFileName = fileName.split("\\.")[0];
         String outputFile = inputFileName + ".asm";
+        StageMetrics.Timer timer = StageMetrics.start(VMTranslator.TOOL, "write", outputFile);
+        long bytes = 0;
         try(FileWriter fw = new FileWriter(outputFile, true);
             BufferedWriter bw = new BufferedWriter(fw);
             PrintWriter out = new PrintWriter(bw))
         {
             for (String line:assemblerCode) {
                 out.println(line);
+                bytes += line.length() + 1;
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
+        timer.stop(0, bytes, 0);
+    }
+
+    /**
+     * Number of Hack instructions written so far, labels and comments are not instructions
+     */
+    public int countInstructions() {
+        int count = 0;
+        for (String line: assemblerCode) {
+            if (!line.startsWith("(") && !line.startsWith("//")) {
+                count++;
+            }
+        }
+        return count;
     }
 
     public void print() {
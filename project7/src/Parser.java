@@ -12,9 +12,14 @@ public class Parser {
     private List<String> arithmetic = Arrays.asList("add", "sub", "neg", "and", "or", "not", "eq", "lt", "gt");
 
     public Parser(String fileName) throws Exception {
+        StageMetrics.Timer timer = StageMetrics.start(VMTranslator.TOOL, "read", fileName);
         List<String> lines = Files.readAllLines(Path.of(fileName));
+        timer.stop(Files.size(Path.of(fileName)), 0, 0);
+
+        timer = StageMetrics.start(VMTranslator.TOOL, "parse", fileName);
         lines = removeCommentsAndEmptyLines(lines);
         commandIterator = lines.listIterator();
+        timer.stop(0, 0, 0);
     }
 
     public boolean hasMoreCommands() {
@@ -1,18 +1,25 @@
 public class VMTranslator {
 
+    // Name of this tool in StageMetrics
+    static final String TOOL = "vm-translator";
+
+    private String fileName;
     private Parser parser;
     private CodeWriter codeWriter;
 
     public VMTranslator(String fileName) throws Exception {
+        this.fileName = fileName;
         this.parser = new Parser(fileName);
         this.codeWriter = new CodeWriter(fileName);
     }
 
     public void translate() {
+        StageMetrics.Timer timer = StageMetrics.start(TOOL, "translate", fileName);
         while(this.parser.hasMoreCommands()) {
             Command command = this.parser.nextCommand();
             codeWriter.write(command);
         }
+        timer.stop(0, 0, codeWriter.countInstructions());
         codeWriter.flush();
     }
     public static void main(String[] args) throws Exception {
@@ -20,5 +27,8 @@ public class VMTranslator {
         System.out.println("File name is " + fileName);
         VMTranslator translator = new VMTranslator(fileName);
         translator.translate();
+        if (args.length > 1 && args[1].equals("--metrics")) {
+            System.out.print(StageMetrics.report());
+        }
     }
 }
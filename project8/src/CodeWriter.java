@@ -696,6 +696,19 @@ public class CodeWriter {
         }
     }
 
+    /**
+     * Number of Hack instructions written so far, labels and comments are not instructions
+     */
+    public int countInstructions() {
+        int count = 0;
+        for (String line: assemblerCode) {
+            if (!line.startsWith("(") && !line.startsWith("//")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
     public List<String> getTranslatedAsm() {
         return this.assemblerCode;
     }
@@ -3,24 +3,29 @@ import java.util.List;
 
 public class TranslatorMain {
 
+    private String fileName;
     private Parser parser;
     private CodeWriter codeWriter;
 
     public TranslatorMain(String fileName) throws Exception {
+        this.fileName = fileName;
         this.parser = new Parser(fileName);
         this.codeWriter = new CodeWriter(fileName);
     }
 
     public TranslatorMain(String fileName, boolean bootstrap) throws Exception {
+        this.fileName = fileName;
         this.parser = new Parser(fileName, bootstrap);
         this.codeWriter = new CodeWriter(fileName);
     }
 
     public List<String> translate() {
+        StageMetrics.Timer timer = StageMetrics.start(VMTranslator.TOOL, "translate", fileName);
         while(this.parser.hasMoreCommands()) {
             Command command = this.parser.nextCommand();
             codeWriter.write(command);
         }
+        timer.stop(0, 0, codeWriter.countInstructions());
         return codeWriter.getTranslatedAsm();
     }
 
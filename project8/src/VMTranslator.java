@@ -7,6 +7,9 @@ import java.util.stream.Collectors;
 
 public class VMTranslator {
 
+    // Name of this tool in StageMetrics
+    static final String TOOL = "vm-translator";
+
     private List<String> translatedAsm;
 
     public VMTranslator() throws Exception {
@@ -57,16 +60,20 @@ public class VMTranslator {
             outputFile  = String.format("%s/%s.asm", inputFileName, inputFileName);
         }
         System.out.println("Output File: " + outputFile);
+        StageMetrics.Timer timer = StageMetrics.start(TOOL, "write", outputFile);
+        long bytes = 0;
         try(FileWriter fw = new FileWriter(outputFile, true);
             BufferedWriter bw = new BufferedWriter(fw);
             PrintWriter out = new PrintWriter(bw))
         {
             for (String line: translatedAsm) {
                 out.println(line);
+                bytes += line.length() + 1;
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
+        timer.stop(0, bytes, 0);
     }
 
     public static void main(String[] args) throws Exception {
@@ -75,5 +82,8 @@ public class VMTranslator {
 
         VMTranslator translator = new VMTranslator();
         translator.translate(fileName);
+        if (args.length > 1 && args[1].equals("--metrics")) {
+            System.out.print(StageMetrics.report());
+        }
     }
 }